@@ -0,0 +1,87 @@
+#!/usr/bin/env python3
+"""A thin client for the gitlet daemon (see gitlet/Daemon.java).
+
+    gitlet-client.py ARGS...
+
+runs "gitlet ARGS..." in the repository in the current directory.  If a
+daemon serves it, the arguments are sent to the daemon and its output and
+exit status are relayed, so no JVM is started; otherwise, and for "batch"
+and "daemon", this becomes "java gitlet.Main ARGS..." (with the classes
+found through CLASSPATH, as for any gitlet command).
+
+The protocol on .gitlet/daemon.sock, all numbers big-endian:
+    request   -- argument count (int), then each argument as by
+                 DataOutputStream.writeUTF: a length (unsigned short) and
+                 that many bytes of modified UTF-8
+    response  -- frames of a channel byte (1 output, 2 error output), a
+                 length (int) and that many bytes, then a byte 0 and the
+                 exit status (int)
+"""
+
+import os
+import socket
+import struct
+import sys
+
+SOCKET_FILE = os.path.join(".gitlet", "daemon.sock")
+EXIT, OUT, ERR = 0, 1, 2
+
+
+def modified_utf8(arg):
+    """ARG as DataOutputStream.writeUTF encodes it: UTF-8, except that NUL
+    is two bytes and characters outside the BMP are a surrogate pair of
+    three bytes each."""
+    pairs = "".join(c if ord(c) < 0x10000 else
+                    chr(0xd800 + ((ord(c) - 0x10000) >> 10)) +
+                    chr(0xdc00 + ((ord(c) - 0x10000) & 0x3ff)) for c in arg)
+    data = pairs.encode("utf-8", "surrogatepass").replace(b"\0", b"\xc0\x80")
+    if len(data) > 0xffff:
+        sys.exit("gitlet-client: argument too long")
+    return struct.pack(">H", len(data)) + data
+
+
+def read_fully(conn, n):
+    data = bytearray()
+    while len(data) < n:
+        part = conn.recv(n - len(data))
+        if not part:
+            sys.exit("Lost the gitlet daemon: connection closed")
+        data += part
+    return bytes(data)
+
+
+def connect():
+    """A connection to the daemon of the current directory, or None."""
+    if not os.path.exists(SOCKET_FILE):
+        return None
+    conn = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+    try:
+        conn.connect(SOCKET_FILE)
+    except OSError:
+        conn.close()
+        return None
+    return conn
+
+
+def main(args):
+    conn = None
+    if args and args[0] != "batch" and args != ["daemon"]:
+        conn = connect()
+    if conn is None:
+        os.execvp("java", ["java", "gitlet.Main"] + args)
+    with conn:
+        conn.sendall(struct.pack(">i", len(args))
+                     + b"".join(modified_utf8(arg) for arg in args))
+        while True:
+            kind = read_fully(conn, 1)[0]
+            if kind == EXIT:
+                return struct.unpack(">i", read_fully(conn, 4))[0]
+            length = struct.unpack(">i", read_fully(conn, 4))[0]
+            out = sys.stdout if kind == OUT else sys.stderr
+            out.flush()
+            out.buffer.write(read_fully(conn, length))
+            out.buffer.flush()
+
+
+if __name__ == "__main__":
+    sys.exit(main(sys.argv[1:]))
@@ -0,0 +1,114 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** "gitlet batch [FILE]": run the commands listed in FILE, or on standard
+ *  input, one after another in this process, so that they share one JVM
+ *  and whatever it has loaded of the repository.
+ *
+ *  Each line is one command without the leading "gitlet", split into
+ *  operands at blanks.  Operands holding blanks are quoted with "..." or
+ *  '...'; inside double quotes a backslash escapes the next character.
+ *  Blank lines and lines starting with # are skipped.  A command that
+ *  fails prints its message, as it would on its own, and the next command
+ *  still runs.
+ */
+class Batch {
+
+    /** Run the commands read from FILE, or standard input if FILE is null. */
+    static void run(String file) {
+        InputStream input;
+        try {
+            input = file == null ? System.in : new FileInputStream(new File(file));
+        } catch (IOException excp) {
+            throw error("Cannot read %s.", file);
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        int lineNumber = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber += 1;
+                runLine(line, lineNumber);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot read %s.", file == null ? "standard input" : file);
+        } finally {
+            if (file != null) {
+                try {
+                    reader.close();
+                } catch (IOException excp) {
+                    /* Nothing was written. */
+                }
+            }
+        }
+    }
+
+    private static void runLine(String line, int lineNumber) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return;
+        }
+        try {
+            String[] args = split(trimmed);
+            if (args[0].equals("batch") || args[0].equals("daemon")) {
+                throw error("%s cannot run inside a batch.", args[0]);
+            }
+            Main.run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } catch (RuntimeException excp) {
+            System.err.println("line " + lineNumber + ": " + excp);
+        }
+    }
+
+    /** The operands of command LINE. */
+    static String[] split(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = new StringBuilder();
+        boolean inArg = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else if (c == '\\' && quote == '"' && i + 1 < line.length()) {
+                    i += 1;
+                    arg.append(line.charAt(i));
+                } else {
+                    arg.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inArg = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inArg) {
+                    args.add(arg.toString());
+                    arg.setLength(0);
+                    inArg = false;
+                }
+            } else {
+                arg.append(c);
+                inArg = true;
+            }
+        }
+        if (quote != 0) {
+            throw error("Unterminated quote in: %s", line);
+        }
+        if (inArg) {
+            args.add(arg.toString());
+        }
+        return args.toArray(new String[0]);
+    }
+}
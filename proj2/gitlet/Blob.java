@@ -1,6 +1,19 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
 
 /** Represents a Bulb object which stores a committed file's infos
  *  Every Bulb maps a file.
@@ -8,24 +21,149 @@ import java.io.Serializable;
  *  FileId is unique and also is shared for serialized Bulb's name.
  *  Files and  serialized Bulb will be saved in the same dir.
  *
+ *  The content itself is not kept in the Bulb: it is split into chunks by
+ *  Chunker, and the Bulb only lists the chunk ids in order, so versions of
+ *  a file share all the chunks they have in common.  Blobs written before
+ *  that hold the whole content instead and are chunked as they are read,
+ *  see decode.
  */
 
 public class Blob implements Serializable {
 
+    /** Size of the buffer files are streamed through. */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The longest content held in memory whole, about the largest array
+     *  the JVM allocates. */
+    static final long MAX_BYTES = Integer.MAX_VALUE - 8;
 
     private String fileName;
+    private List<String> chunks;
+    private long size;
+
+    /** The whole content, only in blobs written before content was
+     *  chunked.  decode replaces it with chunks. */
     private String fileContent;
 
-    Blob(String fileName, String fileContent) {
-        this.fileContent = fileContent;
+    /** The id Java serialization computed for this class when it held the
+     *  whole content, so that those blobs still deserialize. */
+    private static final long serialVersionUID = 2056243659475732467L;
+
+    Blob(String fileName, List<String> chunks, long size) {
         this.fileName = fileName;
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    /** Chunk the content of FILE into the object store, store the Blob
+     *  naming it as FILENAME and return its id, the one hash() gives.  The
+     *  file is streamed, never held in memory, and read once: the id is
+     *  hashed from the same bytes as the chunks, so it names them even if
+     *  the file changes meanwhile. */
+    static String store(String fileName, File file) {
+        MessageDigest md = Utils.newDigest();
+        List<String> chunks = new ArrayList<>();
+        long size;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            size = Chunker.store(in, md, chunks);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        md.update(fileName.getBytes(StandardCharsets.UTF_8));
+        String id = Utils.toHexId(md.digest(), 0);
+        ObjectStore.writeBlob(id, new Blob(fileName, chunks, size));
+        return id;
     }
 
+    /** Return the blob serialized in BYTES.  The content of a blob written
+     *  before content was chunked is stored as chunks here, once, before it
+     *  is cached; its id, the sha1 of that content and its name, is the
+     *  same either way. */
+    static Blob decode(byte[] bytes) {
+        Blob blob = Utils.deserialize(bytes, Blob.class);
+        if (blob.fileContent != null) {
+            byte[] content = blob.fileContent.getBytes(StandardCharsets.UTF_8);
+            blob.chunks = new ArrayList<>();
+            try {
+                blob.size = Chunker.store(new ByteArrayInputStream(content),
+                        Utils.newDigest(), blob.chunks);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            blob.fileContent = null;
+        }
+        return blob;
+    }
+
+    /** Return the id FILE would have as a Blob named FILENAME, that is the
+     *  sha1 of its content followed by FILENAME.  The content is read
+     *  BUFFER_SIZE bytes at a time into a buffer kept by each thread. */
+    static String hash(File file, String fileName) {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MessageDigest md = Utils.digest();
+            ByteBuffer buffer = HASH_BUFFER.get();
+            buffer.clear();
+            while (in.read(buffer) >= 0) {
+                md.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            md.update(fileName.getBytes(StandardCharsets.UTF_8));
+            return Utils.toHexId(md.digest(), 0);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static final ThreadLocal<ByteBuffer> HASH_BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
+    /** Reassemble the whole content.  Only for callers that really need the
+     *  file in memory, like conflict handling; checkout uses writeTo. */
     public String getFileContent() {
-        return fileContent;
+        return new String(getBytes(), StandardCharsets.UTF_8);
+    }
+
+    /** The whole content as bytes, as diffs and line by line merges
+     *  compare it.  Throws a GitletException if it is longer than
+     *  MAX_BYTES, as no array holds it. */
+    byte[] getBytes() {
+        checkComparable(fileName, size);
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) size);
+        try {
+            Chunker.writeChunks(chunks, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    /** Throw a GitletException if content of SIZE bytes, of the file
+     *  FILENAME, is too long to be held in memory whole. */
+    static void checkComparable(String fileName, long size) {
+        if (size > MAX_BYTES) {
+            throw Utils.error("%s is too large to compare line by line.", fileName);
+        }
+    }
+
+    /** Write the content to FILE, one chunk at a time. */
+    public void writeTo(File file) {
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Chunker.writeChunks(chunks, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     public String getFileName() {
         return fileName;
     }
+
+    public List<String> getChunks() {
+        return chunks;
+    }
+
+    public long getSize() {
+        return size;
+    }
 }
@@ -0,0 +1,257 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** A Bloom filter per commit of the paths it changed, so that a history
+ *  query for a path can skip most commits without reading them (see Log).
+ *
+ *  The paths of a commit are the files that differ between its tree and
+ *  its first parent's (every file for a root commit), together with every
+ *  directory above them.  A filter has BITS_PER_PATH bits per path and
+ *  answers with HASHES bit positions, taken by double hashing from two
+ *  murmur3 hashes of the path as git does; a path it was not built from
+ *  is let through about one time in a hundred.  A commit that changed
+ *  more than MAX_PATHS paths gets an empty filter, which lets everything
+ *  through.
+ *
+ *  Filters follow the records of the commit graph, one per record number:
+ *      changed-paths.idx -- header ("GCBF", version, count), then for each
+ *                           filter the offset its bytes end at (long)
+ *      changed-paths.dat -- the bytes of the filters, back to back
+ *  Both files are only appended to, data first, and the count in the
+ *  header is rewritten last, so an interrupted append is ignored and
+ *  later overwritten.  Records the graph has but the filters do not yet
+ *  cover, as in a repository made before filters existed, get theirs on
+ *  the next update(); until then they let everything through.
+ */
+class ChangedPaths {
+
+    static final File INDEX_FILE = join(Repository.GITLET_DIR, "changed-paths.idx");
+    static final File DATA_FILE = join(Repository.GITLET_DIR, "changed-paths.dat");
+
+    private static final int MAGIC = 0x47434246; // "GCBF"
+    private static final int VERSION = 1;
+    private static final int HEADER = 12;
+
+    static final int BITS_PER_PATH = 10;
+    static final int HASHES = 7;
+    static final int MAX_PATHS = 512;
+
+    private static final int SEED1 = 0x293ae76f;
+    private static final int SEED2 = 0x7e646e2c;
+
+    /** The mapped files, or null if not loaded yet. */
+    private static ByteBuffer index;
+    private static ByteBuffer data;
+    /** Number of valid filters in INDEX. */
+    private static int count;
+    /** Modification time of INDEX_FILE when mapped. */
+    private static long indexStamp;
+
+    /** Build the filters of every graph record that has none yet.  Runs
+     *  holding the WriteLock, as the graph grows only under it. */
+    static void update() {
+        if (!INDEX_FILE.exists() || !DATA_FILE.exists()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(VERSION).putInt(0);
+            writeContents(DATA_FILE, new byte[0]);
+            writeContents(INDEX_FILE, header.array());
+            index = null;
+        }
+        load();
+        int total = CommitGraph.size();
+        if (count >= total) {
+            return;
+        }
+        long end = count == 0 ? 0 : endOf(count - 1);
+        ByteArrayOutputStream filters = new ByteArrayOutputStream();
+        ByteBuffer ends = ByteBuffer.allocate((total - count) * 8);
+        for (int pos = count; pos < total; pos += 1) {
+            byte[] filter = filter(pos);
+            filters.write(filter, 0, filter.length);
+            end += filter.length;
+            ends.putLong(end);
+        }
+        try (RandomAccessFile out = new RandomAccessFile(DATA_FILE, "rw")) {
+            out.seek(count == 0 ? 0 : endOf(count - 1));
+            out.write(filters.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (RandomAccessFile out = new RandomAccessFile(INDEX_FILE, "rw")) {
+            out.seek(HEADER + (long) count * 8);
+            out.write(ends.array());
+            out.seek(8);
+            out.writeInt(total);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        index = null;
+        load();
+    }
+
+    /** Drop every filter, as when the graph is rebuilt with new record
+     *  numbers. */
+    static void clear() {
+        INDEX_FILE.delete();
+        DATA_FILE.delete();
+        index = null;
+    }
+
+    /** The key of PATH, a file or directory, for mayHaveChanged: its two
+     *  hashes, computed once per query rather than once per commit. */
+    static int[] key(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        return new int[] {murmur3(SEED1, bytes), murmur3(SEED2, bytes)};
+    }
+
+    /** False if the commit at graph position POS certainly did not change
+     *  the path of KEY; true if it may have. */
+    static boolean mayHaveChanged(int pos, int[] key) {
+        load();
+        if (pos >= count) {
+            return true;
+        }
+        long start = pos == 0 ? 0 : endOf(pos - 1);
+        int length = (int) (endOf(pos) - start);
+        if (length == 0) {
+            return true;
+        }
+        long bits = length * 8L;
+        for (int i = 0; i < HASHES; i += 1) {
+            long bit = Integer.toUnsignedLong(key[0] + i * key[1]) % bits;
+            if ((data.get((int) (start + bit / 8)) & (1 << (bit % 8))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The filter of the commit at graph position POS. */
+    private static byte[] filter(int pos) {
+        String tree = ObjectStore.readCommit(CommitGraph.idAt(pos)).getTree();
+        int parent = CommitGraph.firstParent(pos);
+        String parentTree = parent < 0 ? null
+                : ObjectStore.readCommit(CommitGraph.idAt(parent)).getTree();
+        Set<String> paths = new HashSet<>();
+        for (String file : Tree.diff(parentTree, tree).keySet()) {
+            for (int slash = file.length(); slash > 0; slash = file.lastIndexOf('/', slash - 1)) {
+                if (!paths.add(file.substring(0, slash))) {
+                    break;
+                }
+            }
+        }
+        if (paths.size() > MAX_PATHS) {
+            return new byte[0];
+        }
+        byte[] filter = new byte[Math.max(1, (paths.size() * BITS_PER_PATH + 7) / 8)];
+        long bits = filter.length * 8L;
+        for (String path : paths) {
+            int[] key = key(path);
+            for (int i = 0; i < HASHES; i += 1) {
+                long bit = Integer.toUnsignedLong(key[0] + i * key[1]) % bits;
+                filter[(int) (bit / 8)] |= 1 << (bit % 8);
+            }
+        }
+        return filter;
+    }
+
+    /** The 32 bit murmur3 hash of BYTES with SEED. */
+    static int murmur3(int seed, byte[] bytes) {
+        int h = seed;
+        int blocks = bytes.length / 4;
+        for (int i = 0; i < blocks; i += 1) {
+            int k = (bytes[4 * i] & 0xff) | (bytes[4 * i + 1] & 0xff) << 8
+                    | (bytes[4 * i + 2] & 0xff) << 16 | (bytes[4 * i + 3] & 0xff) << 24;
+            h ^= mixK(k);
+            h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+        }
+        int k = 0;
+        switch (bytes.length & 3) {
+            case 3:
+                k ^= (bytes[4 * blocks + 2] & 0xff) << 16;
+                /* fall through */
+            case 2:
+                k ^= (bytes[4 * blocks + 1] & 0xff) << 8;
+                /* fall through */
+            case 1:
+                k ^= bytes[4 * blocks] & 0xff;
+                h ^= mixK(k);
+                break;
+            default:
+                break;
+        }
+        h ^= bytes.length;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int mixK(int k) {
+        k *= 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15);
+        return k * 0x1b873593;
+    }
+
+    private static long endOf(int pos) {
+        return index.getLong(HEADER + pos * 8);
+    }
+
+    /** Forget the mapped files if another process changed them. */
+    static void reload() {
+        if (index != null && INDEX_FILE.lastModified() != indexStamp) {
+            index = null;
+        }
+    }
+
+    /** Map both files.  Until update() makes them, as while another
+     *  process rebuilds the graph, there are no filters. */
+    private static void load() {
+        if (index != null) {
+            return;
+        }
+        indexStamp = INDEX_FILE.lastModified();
+        /* The index first: data is appended before the index, so it has
+         * the bytes of every filter the index counts. */
+        index = map(INDEX_FILE);
+        data = map(DATA_FILE);
+        if (index == null || data == null) {
+            index = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).putInt(0);
+            count = 0;
+            return;
+        }
+        if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION) {
+            throw error("Corrupt changed-paths index.");
+        }
+        /* The header may already count filters another process appended
+         * after the file was mapped. */
+        count = Math.min(index.getInt(8), (index.capacity() - HEADER) / 8);
+    }
+
+    /** FILE mapped, or null if there is no FILE. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
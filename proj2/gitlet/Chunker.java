@@ -0,0 +1,228 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** Splits file contents into content-defined chunks and stores each chunk
+ *  once in the object store, so that two versions of a slowly changing file
+ *  share every chunk except the few around the edits.
+ *
+ *  Chunk boundaries come from a gear rolling hash over the bytes: a chunk
+ *  ends after the first byte at which the low bits of the hash are all zero
+ *  (on average every AVG_SIZE bytes), but never before MIN_SIZE bytes and
+ *  never after MAX_SIZE bytes.  Since the hash only depends on the last few
+ *  dozen bytes, an insertion only moves the boundaries right around it.
+ *
+ *  A stored chunk is a flag byte (STORED or DEFLATED) followed by the
+ *  payload.  The chunk id is the sha1 of the uncompressed bytes.
+ */
+class Chunker {
+
+    static final int MIN_SIZE = 2 * 1024;
+    static final int AVG_SIZE = 8 * 1024;
+    static final int MAX_SIZE = 64 * 1024;
+
+    static final byte STORED = 0;
+    static final byte DEFLATED = 1;
+
+    /** Whether chunk payloads are deflated.  Turn off with
+     *  -Dgitlet.compression=false. */
+    static final boolean COMPRESS =
+        !"false".equals(System.getProperty("gitlet.compression"));
+
+    private static final long MASK = AVG_SIZE - 1;
+
+    /** Random 64 bit values, one per byte value, driving the rolling hash.
+     *  The seed is fixed so every repository cuts at the same places. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(61);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Store everything read from IN as chunks, adding their ids to IDS in
+     *  order and every byte read to MD.  Returns the number of bytes read.
+     *  IN is read through a buffer of twice MAX_SIZE, so the heap used does
+     *  not depend on the length of IN. */
+    static long store(InputStream in, MessageDigest md, List<String> ids) throws IOException {
+        byte[] buffer = new byte[2 * MAX_SIZE];
+        int start = 0;
+        int limit = 0;
+        long total = 0;
+        boolean eof = false;
+        while (true) {
+            /* Keep at least MAX_SIZE bytes ahead of START, so a boundary is
+             * only ever cut short by the end of the input. */
+            if (!eof && limit - start < MAX_SIZE) {
+                System.arraycopy(buffer, start, buffer, 0, limit - start);
+                limit -= start;
+                start = 0;
+                while (limit < buffer.length) {
+                    int n = in.read(buffer, limit, buffer.length - limit);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    md.update(buffer, limit, n);
+                    limit += n;
+                    total += n;
+                }
+            }
+            if (start >= limit) {
+                return total;
+            }
+            int end = nextBoundary(buffer, start, limit);
+            ids.add(storeChunk(buffer, start, end - start));
+            start = end;
+        }
+    }
+
+    /** Return the end of the chunk starting at START in BYTES[.. LIMIT). */
+    static int nextBoundary(byte[] bytes, int start, int limit) {
+        int max = Math.min(limit, start + MAX_SIZE);
+        if (max - start <= MIN_SIZE) {
+            return max;
+        }
+        long hash = 0;
+        for (int i = start; i < max; i += 1) {
+            hash = (hash << 1) + GEAR[bytes[i] & 0xff];
+            if (i - start + 1 >= MIN_SIZE && (hash & MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return max;
+    }
+
+    /** Store BYTES[OFFSET .. OFFSET + LENGTH) as a chunk, returning its id. */
+    static String storeChunk(byte[] bytes, int offset, int length) {
+        String id = Utils.sha1(bytes, offset, length);
+        if (ObjectStore.contains(ObjectStore.CHUNK, id)) {
+            return id;
+        }
+        byte[] raw = new byte[length];
+        System.arraycopy(bytes, offset, raw, 0, length);
+        byte[] packed = COMPRESS ? deflate(raw) : null;
+        ByteArrayOutputStream stored = new ByteArrayOutputStream(length + 1);
+        if (packed != null && packed.length < length) {
+            stored.write(DEFLATED);
+            stored.write(packed, 0, packed.length);
+        } else {
+            stored.write(STORED);
+            stored.write(raw, 0, length);
+        }
+        ObjectStore.writeBytes(ObjectStore.CHUNK, id, stored.toByteArray());
+        return id;
+    }
+
+    /** Write the uncompressed contents of chunks IDS, in order, to OUT. */
+    static void writeChunks(List<String> ids, OutputStream out) throws IOException {
+        for (String id : ids) {
+            out.write(readChunk(id));
+        }
+    }
+
+    /** Write the uncompressed contents of chunks IDS, in order, to OUT.
+     *  Stored chunks are copied channel to channel (loose) or straight from
+     *  the mapped pack, without passing through a byte array. */
+    static void writeChunks(List<String> ids, FileChannel out) throws IOException {
+        for (String id : ids) {
+            File loose = ObjectStore.looseFile(ObjectStore.CHUNK, id);
+            if (loose != null) {
+                try (FileChannel in = FileChannel.open(loose.toPath(), StandardOpenOption.READ)) {
+                    ByteBuffer flag = ByteBuffer.allocate(1);
+                    in.read(flag, 0);
+                    if (flag.get(0) == STORED) {
+                        long position = 1;
+                        long size = in.size();
+                        while (position < size) {
+                            position += in.transferTo(position, size - position, out);
+                        }
+                        continue;
+                    }
+                }
+                writeFully(out, ByteBuffer.wrap(readChunk(id)));
+                continue;
+            }
+            ByteBuffer stored = ObjectStore.readBuffer(ObjectStore.CHUNK, id);
+            if (stored == null) {
+                throw new IllegalArgumentException("No such chunk " + id);
+            }
+            if (stored.get(0) == STORED) {
+                writeFully(out, stored.slice(1, stored.remaining() - 1));
+            } else {
+                writeFully(out, ByteBuffer.wrap(readChunk(id)));
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /** Return the uncompressed contents of chunk ID. */
+    static byte[] readChunk(String id) {
+        byte[] stored = ObjectStore.readBytes(ObjectStore.CHUNK, id);
+        if (stored == null) {
+            throw new IllegalArgumentException("No such chunk " + id);
+        }
+        if (stored[0] == STORED) {
+            byte[] raw = new byte[stored.length - 1];
+            System.arraycopy(stored, 1, raw, 0, raw.length);
+            return raw;
+        }
+        return inflate(stored, 1);
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] packed, int offset) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(packed, offset, packed.length - offset);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(MAX_SIZE);
+        byte[] buffer = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IllegalArgumentException("Truncated chunk");
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return out.toByteArray();
+    }
+}
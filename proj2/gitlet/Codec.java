@@ -0,0 +1,111 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import static gitlet.Utils.*;
+
+/** Building blocks of the compact binary encodings of Commit, Tree and Ref.
+ *
+ *  Every encoded object starts with a tag byte saying what it is and a
+ *  version byte.  Files written by ObjectOutputStream start with 0xACED
+ *  instead, so isLegacy() tells the two apart and old repositories stay
+ *  readable.
+ *
+ *  Numbers are unsigned LEB128 varints (7 bits per byte, low bits first,
+ *  high bit set on all but the last byte).  Ids are stored as their 20 raw
+ *  bytes.
+ */
+class Codec {
+
+    private static final int RAW_LENGTH = UID_LENGTH / 2;
+
+    /** True iff BYTES were written by ObjectOutputStream. */
+    static boolean isLegacy(byte[] bytes) {
+        return bytes.length >= 2 && (bytes[0] & 0xff) == 0xac && (bytes[1] & 0xff) == 0xed;
+    }
+
+    /** Check that IN starts with TAG and a version from 1 to VERSION, the
+     *  header of a NAME, and return that version. */
+    static int readHeader(ByteBuffer in, byte tag, byte version, String name) {
+        if (in.remaining() < 2 || in.get() != tag) {
+            throw error("Corrupt %s.", name);
+        }
+        byte found = in.get();
+        if (found < 1 || found > version) {
+            throw error("Unsupported %s version %d.", name, found);
+        }
+        return found;
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw error("Corrupt varint.");
+    }
+
+    static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = (int) readVarint(in);
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length,
+                StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    static void writeId(ByteArrayOutputStream out, String id) {
+        out.write(toRawId(id), 0, RAW_LENGTH);
+    }
+
+    static String readId(ByteBuffer in) {
+        String id = toHexId(in.array(), in.arrayOffset() + in.position());
+        in.position(in.position() + RAW_LENGTH);
+        return id;
+    }
+
+    /** Read a map from path to id, as held by version 1 commits: sorted by
+     *  path, each path front coded against the previous one. */
+    static HashMap<String, String> readPathMap(ByteBuffer in) {
+        int size = (int) readVarint(in);
+        HashMap<String, String> map = new HashMap<>(size * 4 / 3 + 1);
+        byte[] path = new byte[64];
+        int length = 0;
+        for (int i = 0; i < size; i += 1) {
+            int shared = (int) readVarint(in);
+            int rest = (int) readVarint(in);
+            if (shared > length) {
+                throw error("Corrupt path list.");
+            }
+            length = shared + rest;
+            if (length > path.length) {
+                byte[] larger = new byte[Math.max(length, path.length * 2)];
+                System.arraycopy(path, 0, larger, 0, shared);
+                path = larger;
+            }
+            in.get(path, shared, rest);
+            map.put(new String(path, 0, length, StandardCharsets.UTF_8), readId(in));
+        }
+        return map;
+    }
+}
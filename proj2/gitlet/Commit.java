@@ -1,6 +1,8 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Date;
 import java.util.HashMap;
 
@@ -8,6 +10,9 @@ import java.util.HashMap;
  *  includes: id, message, author, time and parent Ids and bulbs of this commit
  *  Because time(date) + msg is unique, use it to sha1
  *  Why not just date? Because when commits in testing are so quick, they may be at the same time
+ *
+ *  Commits are stored in a compact binary form, see encode().  Commits
+ *  written with Java serialization by older versions are still read.
  */
 public class Commit implements Serializable {
     /**
@@ -30,14 +35,94 @@ public class Commit implements Serializable {
     /** the second parentID */
     private String yParent;
 
+    /** The id of the Tree of all files in this commit, null for the
+     *  initial commit.  Unchanged directories share their trees with the
+     *  parent commit, see Tree. */
+    private String tree;
+
     /**
      * key: file's name
      * value: blob's name (sha1)
-     * HashMap is good here because you can easily add file or refresh(just as add)
+     * Only read from commits written before trees existed, and replaced
+     * by a tree as they are decoded, see decode.
      * */
     private HashMap<String, String> blobs;
 
-    private HashMap<String, String> removalBlobs;
+    /** The id Java serialization computed for this class before it could
+     *  encode itself, so that legacy commits still deserialize. */
+    private static final long serialVersionUID = 5108268974267689818L;
+
+    static final byte TAG = 'C';
+    /** Version 1 held the whole file map (and a removal map) instead of a tree. */
+    static final byte VERSION = 2;
+
+    private static final int HAS_X_PARENT = 1;
+    private static final int HAS_Y_PARENT = 2;
+    private static final int HAS_BLOBS = 4;
+    private static final int HAS_TREE = 16;
+
+    /** Encode this commit as
+     *      tag 'C', version, flags (which of the optional fields follow),
+     *      date in millis (varint), message (varint length, UTF-8),
+     *      [xParent (raw id)], [yParent (raw id)], [tree (raw id)] */
+    byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(TAG);
+        out.write(VERSION);
+        out.write((xParent != null ? HAS_X_PARENT : 0) | (yParent != null ? HAS_Y_PARENT : 0)
+                | (tree != null ? HAS_TREE : 0));
+        Codec.writeVarint(out, date.getTime());
+        Codec.writeString(out, message);
+        if (xParent != null) {
+            Codec.writeId(out, xParent);
+        }
+        if (yParent != null) {
+            Codec.writeId(out, yParent);
+        }
+        if (tree != null) {
+            Codec.writeId(out, tree);
+        }
+        return out.toByteArray();
+    }
+
+    /** Return the commit encoded in BYTES, by encode() or, for commits
+     *  written by older versions, by Java serialization.  A commit written
+     *  before trees existed gets the tree built from its file map (and
+     *  stored) here, once, before it is cached and shared between threads
+     *  that only read it. */
+    static Commit decode(byte[] bytes) {
+        if (Codec.isLegacy(bytes)) {
+            return withTree(Utils.deserialize(bytes, Commit.class));
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        int version = Codec.readHeader(in, TAG, VERSION, "commit");
+        int flags = in.get();
+        Commit commit = new Commit();
+        commit.date = new Date(Codec.readVarint(in));
+        commit.message = Codec.readString(in);
+        if ((flags & HAS_X_PARENT) != 0) {
+            commit.xParent = Codec.readId(in);
+        }
+        if ((flags & HAS_Y_PARENT) != 0) {
+            commit.yParent = Codec.readId(in);
+        }
+        if (version == 1 && (flags & HAS_BLOBS) != 0) {
+            commit.blobs = Codec.readPathMap(in);
+        }
+        if ((flags & HAS_TREE) != 0) {
+            commit.tree = Codec.readId(in);
+        }
+        return withTree(commit);
+    }
+
+    /** COMMIT, with its file map, if any, replaced by a tree. */
+    private static Commit withTree(Commit commit) {
+        if (commit.tree == null && commit.blobs != null) {
+            commit.tree = Tree.build(commit.blobs);
+        }
+        commit.blobs = null;
+        return commit;
+    }
 
     public void setMessage(String message) {
         this.message = message;
@@ -55,11 +140,8 @@ public class Commit implements Serializable {
         this.yParent = yParent;
     }
 
-    public void setBlobs(HashMap<String, String> blobs) {
-        this.blobs = blobs;
-    }
-    public void setRemovalBlobs(HashMap<String, String> removalBlobs) {
-        this.removalBlobs = removalBlobs;
+    public void setTree(String tree) {
+        this.tree = tree;
     }
 
     public String getMessage() {
@@ -79,10 +161,8 @@ public class Commit implements Serializable {
         return yParent;
     }
 
-    public HashMap<String, String> getBlobs() {
-        return blobs;
-    }
-    public HashMap<String, String> getRemovalBlobs() {
-        return removalBlobs;
+    /** The id of the tree of this commit, null for the initial commit. */
+    public String getTree() {
+        return tree;
     }
 }
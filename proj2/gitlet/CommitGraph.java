@@ -0,0 +1,519 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/** A binary index of the shape of the commit history, so that ancestry
+ *  questions never have to deserialize a Commit.
+ *
+ *  .gitlet/commit-graph holds a 12 byte header ("GCGR", version, count)
+ *  followed by one fixed-size record per commit:
+ *      raw id (20 bytes), first parent position, second parent position,
+ *      generation number (ints), corrected date in millis (long)
+ *  A parent position is the record number of that parent, or -1.  Records
+ *  are only ever appended, and a commit is appended after its parents, so
+ *  the file is in topological order.  The generation number of a root is 1
+ *  and otherwise 1 + the largest generation of its parents; every ancestor
+ *  of a commit has a strictly smaller generation.  The corrected date of a
+ *  commit is the larger of its date and 1 + the corrected dates of its
+ *  parents, so it too is strictly larger than that of any ancestor, and
+ *  it is the date itself as long as clocks only move forward.  Walking in
+ *  decreasing corrected date lists history newest first and never shows a
+ *  commit before one of its descendants (see Log).
+ *  The count in the header is rewritten after each append, so a record
+ *  left behind by an interrupted append is ignored and later overwritten.
+ *
+ *  .gitlet/commit-ids makes commits findable by (abbreviated) id without
+ *  scanning the graph.  It is a header ("GCID", version, count) and a 256
+ *  entry fanout table like a pack index (see PackFile), followed by the
+ *  raw ids of the first count records in sorted order, each with its
+ *  record number (int).  Records appended since it was written (the
+ *  "tail") are scanned linearly; once there are TAIL_LIMIT of them the
+ *  tail is merged in and the file rewritten, so that costs O(n) once every
+ *  TAIL_LIMIT commits while a lookup stays O(log n + TAIL_LIMIT).
+ *
+ *  Each record also has a filter of the paths its commit changed, kept
+ *  in step with the graph by ChangedPaths.
+ */
+class CommitGraph {
+
+    static final File GRAPH_FILE = join(Repository.GITLET_DIR, "commit-graph");
+
+    private static final int MAGIC = 0x47434752; // "GCGR"
+    /** Version 1 graphs stored plain dates; they are rebuilt. */
+    private static final int VERSION = 2;
+    private static final int HEADER = 12;
+    private static final int RAW_LENGTH = UID_LENGTH / 2;
+    private static final int RECORD = RAW_LENGTH + 4 + 4 + 4 + 8;
+
+    static final File LOOKUP_FILE = join(Repository.GITLET_DIR, "commit-ids");
+
+    private static final int LOOKUP_MAGIC = 0x47434944; // "GCID"
+    private static final int LOOKUP_HEADER = 12 + 256 * 4;
+    private static final int LOOKUP_ENTRY = RAW_LENGTH + 4;
+    /** Number of unsorted records after which commit-ids is rewritten. */
+    static final int TAIL_LIMIT = 1024;
+
+    /** The mapped graph of this process, or null if not loaded yet. */
+    private static MappedByteBuffer graph;
+    /** Number of valid records in GRAPH. */
+    private static int count;
+    /** Positions of the ids looked up so far. */
+    private static HashMap<String, Integer> positions = new HashMap<>();
+    /** The mapped commit-ids file, or null if there is none. */
+    private static MappedByteBuffer lookup;
+    /** Number of records covered by LOOKUP; the others are the tail. */
+    private static int covered;
+    /** Modification times of the graph and commit-ids files when mapped. */
+    private static long graphStamp;
+    private static long lookupStamp;
+
+    /** Number of commits in the graph. */
+    static int size() {
+        load();
+        return count;
+    }
+
+    /** Return the record number of commit ID, or -1 if it is not in the graph. */
+    static int find(String id) {
+        load();
+        Integer known = positions.get(id);
+        if (known != null) {
+            return known;
+        }
+        byte[] rawId = toRawId(id);
+        /* The tail first: the commits asked about are nearly always branch
+         * heads, which are the most recently appended records. */
+        for (int pos = count - 1; pos >= covered; pos -= 1) {
+            if (idEquals(pos, rawId)) {
+                positions.put(id, pos);
+                return pos;
+            }
+        }
+        int entry = lowerBound(rawId);
+        if (entry < covered && compareRaw(lookup, LOOKUP_HEADER + entry * LOOKUP_ENTRY, rawId) == 0) {
+            int pos = lookup.getInt(LOOKUP_HEADER + entry * LOOKUP_ENTRY + RAW_LENGTH);
+            positions.put(id, pos);
+            return pos;
+        }
+        return -1;
+    }
+
+    /** Return the ids of the commits whose ids start with PREFIX, at most
+     *  LIMIT of them, sorted.  PREFIX is lower case hexadecimal; anything
+     *  else matches nothing. */
+    static List<String> resolve(String prefix, int limit) {
+        load();
+        List<String> result = new ArrayList<>();
+        if (prefix.isEmpty() || prefix.length() > UID_LENGTH || !prefix.matches("[0-9a-f]+")) {
+            return result;
+        }
+        /* The smallest id with this prefix; every match follows it. */
+        byte[] low = toRawId((prefix + "0".repeat(UID_LENGTH)).substring(0, UID_LENGTH));
+        for (int entry = lowerBound(low); entry < covered && result.size() < limit; entry += 1) {
+            int base = LOOKUP_HEADER + entry * LOOKUP_ENTRY;
+            if (!hasPrefix(lookup, base, prefix)) {
+                break;
+            }
+            byte[] raw = new byte[RAW_LENGTH];
+            lookup.get(base, raw);
+            result.add(toHexId(raw, 0));
+        }
+        for (int pos = covered; pos < count && result.size() < limit; pos += 1) {
+            if (hasPrefix(graph, HEADER + pos * RECORD, prefix)) {
+                result.add(idAt(pos));
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    static String idAt(int pos) {
+        byte[] raw = new byte[RAW_LENGTH];
+        graph.get(HEADER + pos * RECORD, raw);
+        return toHexId(raw, 0);
+    }
+
+    static int firstParent(int pos) {
+        return graph.getInt(HEADER + pos * RECORD + RAW_LENGTH);
+    }
+
+    static int secondParent(int pos) {
+        return graph.getInt(HEADER + pos * RECORD + RAW_LENGTH + 4);
+    }
+
+    static int generation(int pos) {
+        return graph.getInt(HEADER + pos * RECORD + RAW_LENGTH + 8);
+    }
+
+    static long correctedDate(int pos) {
+        return graph.getLong(HEADER + pos * RECORD + RAW_LENGTH + 12);
+    }
+
+    /** The corrected date of a commit made at DATE whose parents are at
+     *  positions X and Y (-1 for none). */
+    private static long correctedDate(long date, int x, int y) {
+        long result = date;
+        if (x >= 0) {
+            result = Math.max(result, correctedDate(x) + 1);
+        }
+        if (y >= 0) {
+            result = Math.max(result, correctedDate(y) + 1);
+        }
+        return result;
+    }
+
+    /** Append COMMIT, named ID, to the graph.  Its parents must already be
+     *  in the graph; if they are not, the graph is rebuilt from the object
+     *  store instead. */
+    static void add(String id, Commit commit) {
+        load();
+        if (find(id) >= 0) {
+            return;
+        }
+        int x = commit.getxParent() == null ? -1 : find(commit.getxParent());
+        int y = commit.getyParent() == null ? -1 : find(commit.getyParent());
+        if ((commit.getxParent() != null && x < 0) || (commit.getyParent() != null && y < 0)) {
+            rebuild();
+            return;
+        }
+        int gen = 1 + Math.max(x < 0 ? 0 : generation(x), y < 0 ? 0 : generation(y));
+        append(id, x, y, gen, correctedDate(commit.getDate().getTime(), x, y));
+        positions.put(id, count - 1);
+        if (count - covered >= TAIL_LIMIT) {
+            writeLookup();
+        }
+        ChangedPaths.update();
+    }
+
+    /** Return the id of the latest common ancestor of commits A and B.
+     *
+     *  Commits are visited in decreasing generation order, marking each one
+     *  with the side(s) it is reachable from.  All descendants of a commit
+     *  have larger generations and so are visited first, which means that
+     *  a commit's marks are final when it is popped, and the first commit
+     *  popped with both marks is a common ancestor that no other common
+     *  ancestor descends from.  Only commits newer than the answer are
+     *  visited. */
+    static String mergeBase(String a, String b) {
+        int posA = find(a);
+        int posB = find(b);
+        if (posA < 0 || posB < 0) {
+            rebuild();
+            posA = find(a);
+            posB = find(b);
+        }
+        if (posA == posB) {
+            return a;
+        }
+        HashMap<Integer, Integer> marks = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((p, q) -> {
+            int cmp = Integer.compare(generation(q), generation(p));
+            return cmp != 0 ? cmp : Integer.compare(q, p);
+        });
+        marks.put(posA, 1);
+        marks.put(posB, 2);
+        queue.add(posA);
+        queue.add(posB);
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            int mark = marks.get(pos);
+            if (mark == 3) {
+                return idAt(pos);
+            }
+            for (int parent : new int[] {firstParent(pos), secondParent(pos)}) {
+                if (parent < 0) {
+                    continue;
+                }
+                Integer old = marks.get(parent);
+                if (old == null) {
+                    marks.put(parent, mark);
+                    queue.add(parent);
+                } else {
+                    marks.put(parent, old | mark);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** True iff commit ANCESTOR is DESCENDANT or one of its ancestors. */
+    static boolean isAncestor(String ancestor, String descendant) {
+        return ancestor.equals(mergeBase(ancestor, descendant));
+    }
+
+    /** Recreate the graph from every commit in the object store, parents
+     *  before children, and write it out in one go. */
+    static void rebuild() {
+        rebuild(ObjectStore.commitIds());
+    }
+
+    /** Recreate the graph from commits IDS, which must include the
+     *  parents of each, as rebuild() does. */
+    static void rebuild(List<String> ids) {
+        WriteLock.acquire();
+        try {
+            rebuildLocked(ids);
+        } finally {
+            WriteLock.release();
+        }
+    }
+
+    /** rebuild(IDS), holding the WriteLock so that processes that only
+     *  read do not rebuild at the same time. */
+    private static void rebuildLocked(List<String> ids) {
+        HashMap<String, Integer> placed = new HashMap<>();
+        ByteBuffer records = ByteBuffer.allocate(HEADER + ids.size() * RECORD);
+        records.putInt(MAGIC).putInt(VERSION).putInt(ids.size());
+        int[] generations = new int[ids.size()];
+        long[] dates = new long[ids.size()];
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        HashMap<String, Commit> pending = new HashMap<>();
+        for (String root : ids) {
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                if (placed.containsKey(id)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit commit = pending.get(id);
+                if (commit == null) {
+                    commit = ObjectStore.readCommit(id);
+                    pending.put(id, commit);
+                    /* Visit the parents first; the commit itself is
+                     * placed when it reaches the top of the stack again. */
+                    if (commit.getyParent() != null && !placed.containsKey(commit.getyParent())) {
+                        stack.push(commit.getyParent());
+                    }
+                    if (commit.getxParent() != null && !placed.containsKey(commit.getxParent())) {
+                        stack.push(commit.getxParent());
+                    }
+                    continue;
+                }
+                stack.pop();
+                pending.remove(id);
+                int x = commit.getxParent() == null ? -1 : placed.get(commit.getxParent());
+                int y = commit.getyParent() == null ? -1 : placed.get(commit.getyParent());
+                int pos = placed.size();
+                generations[pos] = 1 + Math.max(x < 0 ? 0 : generations[x], y < 0 ? 0 : generations[y]);
+                dates[pos] = commit.getDate().getTime();
+                if (x >= 0) {
+                    dates[pos] = Math.max(dates[pos], dates[x] + 1);
+                }
+                if (y >= 0) {
+                    dates[pos] = Math.max(dates[pos], dates[y] + 1);
+                }
+                records.put(toRawId(id)).putInt(x).putInt(y).putInt(generations[pos])
+                        .putLong(dates[pos]);
+                placed.put(id, pos);
+            }
+        }
+        /* Record numbers change, so the old commit-ids must not outlive
+         * the old graph. */
+        LOOKUP_FILE.delete();
+        ChangedPaths.clear();
+        Journal.writeAtomic(GRAPH_FILE, records.array(), false);
+        graph = null;
+        positions = placed;
+        load();
+        writeLookup();
+        ChangedPaths.update();
+    }
+
+    /** Rewrite commit-ids to cover every record: sort the tail and merge
+     *  it with the entries already sorted. */
+    static void writeLookup() {
+        load();
+        Integer[] tail = new Integer[count - covered];
+        for (int i = 0; i < tail.length; i += 1) {
+            tail[i] = covered + i;
+        }
+        Arrays.sort(tail, (p, q) -> compareRaw(graph, HEADER + p * RECORD, graph, HEADER + q * RECORD));
+
+        ByteBuffer out = ByteBuffer.allocate(LOOKUP_HEADER + count * LOOKUP_ENTRY);
+        out.putInt(LOOKUP_MAGIC).putInt(VERSION).putInt(count);
+        out.position(LOOKUP_HEADER);
+        int[] fanout = new int[256];
+        byte[] raw = new byte[RAW_LENGTH];
+        int entry = 0;
+        int t = 0;
+        while (entry < covered || t < tail.length) {
+            int fromLookup = LOOKUP_HEADER + entry * LOOKUP_ENTRY;
+            if (t == tail.length || (entry < covered
+                    && compareRaw(lookup, fromLookup, graph, HEADER + tail[t] * RECORD) < 0)) {
+                lookup.get(fromLookup, raw);
+                out.put(raw).putInt(lookup.getInt(fromLookup + RAW_LENGTH));
+                entry += 1;
+            } else {
+                graph.get(HEADER + tail[t] * RECORD, raw);
+                out.put(raw).putInt(tail[t]);
+                t += 1;
+            }
+            fanout[raw[0] & 0xff] += 1;
+        }
+        for (int b = 0, total = 0; b < 256; b += 1) {
+            total += fanout[b];
+            out.putInt(12 + b * 4, total);
+        }
+        Journal.writeAtomic(LOOKUP_FILE, out.array(), false);
+        graph = null;
+        load();
+    }
+
+    /** Index of the first commit-ids entry not smaller than RAWID. */
+    private static int lowerBound(byte[] rawId) {
+        if (lookup == null) {
+            return 0;
+        }
+        int first = rawId[0] & 0xff;
+        int lo = first == 0 ? 0 : lookup.getInt(12 + (first - 1) * 4);
+        int hi = lookup.getInt(12 + first * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareRaw(lookup, LOOKUP_HEADER + mid * LOOKUP_ENTRY, rawId) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compare the raw ids at A[OFFA] and B[OFFB] as unsigned bytes. */
+    private static int compareRaw(ByteBuffer a, int offA, ByteBuffer b, int offB) {
+        for (int i = 0; i < RAW_LENGTH; i += 1) {
+            int cmp = Integer.compare(a.get(offA + i) & 0xff, b.get(offB + i) & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareRaw(ByteBuffer a, int offA, byte[] rawId) {
+        return compareRaw(a, offA, ByteBuffer.wrap(rawId), 0);
+    }
+
+    /** True iff the raw id at BUFFER[OFFSET] starts with hexadecimal PREFIX. */
+    private static boolean hasPrefix(ByteBuffer buffer, int offset, String prefix) {
+        for (int i = 0; i < prefix.length(); i += 1) {
+            int b = buffer.get(offset + i / 2);
+            int nibble = (i % 2 == 0 ? b >> 4 : b) & 0xf;
+            if (nibble != Character.digit(prefix.charAt(i), 16)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean idEquals(int pos, byte[] rawId) {
+        int base = HEADER + pos * RECORD;
+        for (int i = 0; i < RAW_LENGTH; i += 1) {
+            if (graph.get(base + i) != rawId[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void append(String id, int x, int y, int gen, long time) {
+        try (RandomAccessFile out = new RandomAccessFile(GRAPH_FILE, "rw")) {
+            ByteBuffer record = ByteBuffer.allocate(RECORD);
+            record.put(toRawId(id)).putInt(x).putInt(y).putInt(gen).putLong(time);
+            out.seek(HEADER + (long) count * RECORD);
+            out.write(record.array());
+            out.seek(8);
+            out.writeInt(count + 1);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        graph = null;
+        load();
+    }
+
+    /** Forget the mapped files if another process changed them. */
+    static void reload() {
+        if (graph != null && (GRAPH_FILE.lastModified() != graphStamp
+                || GRAPH_FILE.length() != graph.capacity()
+                || LOOKUP_FILE.lastModified() != lookupStamp)) {
+            graph = null;
+            positions = new HashMap<>();
+        }
+    }
+
+    /** Map the graph file, creating an empty one if needed. */
+    private static void load() {
+        if (graph != null) {
+            return;
+        }
+        if (!GRAPH_FILE.exists()) {
+            /* A repository made before the graph existed, or a new one. */
+            rebuild();
+            return;
+        }
+        /* commit-ids is mapped first: it is written after the records it
+         * covers, so the graph mapped next has at least those.  If either
+         * file was replaced meanwhile, as by a rebuild in another process,
+         * the two may not belong together, so both are mapped again. */
+        MappedByteBuffer ids;
+        do {
+            graphStamp = GRAPH_FILE.lastModified();
+            lookupStamp = LOOKUP_FILE.lastModified();
+            ids = map(LOOKUP_FILE);
+            graph = map(GRAPH_FILE);
+        } while (GRAPH_FILE.lastModified() != graphStamp
+                || LOOKUP_FILE.lastModified() != lookupStamp);
+        if (graph == null) {
+            rebuild();
+            return;
+        }
+        if (graph.getInt(0) != MAGIC || graph.getInt(4) > VERSION) {
+            throw error("Corrupt commit-graph.");
+        }
+        if (graph.getInt(4) < VERSION) {
+            graph = null;
+            rebuild();
+            return;
+        }
+        /* The header may already count a record another process appended
+         * after the file was mapped. */
+        count = Math.min(graph.getInt(8), (graph.capacity() - HEADER) / RECORD);
+
+        lookup = null;
+        covered = 0;
+        if (ids != null) {
+            if (ids.getInt(0) != LOOKUP_MAGIC || ids.getInt(4) != VERSION
+                    || ids.getInt(8) > count) {
+                throw error("Corrupt commit-ids.");
+            }
+            lookup = ids;
+            covered = lookup.getInt(8);
+        }
+    }
+
+    /** FILE mapped, or null if there is no FILE. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
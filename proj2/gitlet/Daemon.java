@@ -0,0 +1,194 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static gitlet.Utils.*;
+
+/** A long running gitlet process serving one repository, so that tools
+ *  running many commands pay for JVM startup, class loading and reading
+ *  the index, commit-graph and packs once instead of once per command.
+ *
+ *  "gitlet daemon" serves the repository in the current directory on the
+ *  Unix domain socket .gitlet/daemon.sock until "gitlet daemon stop".
+ *  While it runs, every "java gitlet.Main ..." started in that directory
+ *  hands its arguments to the daemon and relays the output (unless run
+ *  with -Dgitlet.daemon=false), so that it and other clients never work on
+ *  the repository at the same time.  That still starts a JVM per command;
+ *  the time is saved by clients that speak the protocol directly, like
+ *  gitlet-client.py, which runs "gitlet-client.py ARGS..." without a JVM
+ *  while a daemon runs and as "java gitlet.Main ARGS..." otherwise:
+ *      request   -- argument count (int), then each argument as by
+ *                   DataOutputStream.writeUTF
+ *      response  -- frames of a channel byte (OUT or ERR), a length (int)
+ *                   and that many bytes of output, then an EXIT byte and
+ *                   the exit status (int)
+ *  Commands run one at a time through Main.run, the same dispatch as a
+ *  command run on its own.  Before each one, state cached in memory is
+ *  checked against the files it came from (see Repository.reload), so
+ *  commands run without the daemon in between are seen.  "batch" always
+ *  runs in the process that was given its input.
+ */
+class Daemon {
+
+    static final File SOCKET_FILE = join(Repository.GITLET_DIR, "daemon.sock");
+
+    static final byte EXIT = 0;
+    static final byte OUT = 1;
+    static final byte ERR = 2;
+
+    /** Serve commands on SOCKET_FILE until a client asks to stop. */
+    static void serve() {
+        if (SOCKET_FILE.exists()) {
+            if (connect() != null) {
+                throw error("A gitlet daemon is already running.");
+            }
+            /* Left behind by a daemon that was killed. */
+            SOCKET_FILE.delete();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+            System.out.println("Serving " + Repository.CWD + " until \"gitlet daemon stop\".");
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client);
+                } catch (IOException excp) {
+                    /* The client went away; serve the next one. */
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot serve on %s: %s", SOCKET_FILE, excp.getMessage());
+        } finally {
+            SOCKET_FILE.delete();
+        }
+    }
+
+    /** Run the command CLIENT sends and send back its output.  Returns
+     *  false iff the command was "daemon stop". */
+    private static boolean handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(client)));
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream commandOut = new PrintStream(new FrameStream(out, OUT), true);
+        PrintStream commandErr = new PrintStream(new FrameStream(out, ERR), true);
+        boolean stop = args.length == 2 && args[0].equals("daemon") && args[1].equals("stop");
+        int status = 0;
+        System.setOut(commandOut);
+        System.setErr(commandErr);
+        try {
+            if (stop) {
+                System.out.println("Daemon stopped.");
+            } else if (args.length > 0 && args[0].equals("batch")) {
+                /* Its input would be the daemon's own. */
+                throw error("batch cannot run inside the daemon.");
+            } else {
+                Main.run(args);
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } catch (RuntimeException excp) {
+            excp.printStackTrace();
+            status = 1;
+        } finally {
+            if (Boolean.getBoolean("gitlet.stats")) {
+                System.err.println(ObjectStore.cacheStats());
+            }
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        commandOut.flush();
+        commandErr.flush();
+        out.writeByte(EXIT);
+        out.writeInt(status);
+        out.flush();
+        return !stop;
+    }
+
+    /** If a daemon serves the current directory, run ARGS there, copy its
+     *  output to System.out and System.err and return the exit status.
+     *  Returns -1 if the command has to run in this process. */
+    static int forward(String[] args) {
+        if (args.length == 0 || "false".equals(System.getProperty("gitlet.daemon"))
+                || (args.length == 1 && args[0].equals("daemon"))
+                || args[0].equals("batch")
+                || !SOCKET_FILE.exists()) {
+            return -1;
+        }
+        SocketChannel channel = connect();
+        if (channel == null) {
+            return -1;
+        }
+        try (SocketChannel daemon = channel) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(daemon)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(Channels.newInputStream(daemon));
+            while (true) {
+                byte kind = in.readByte();
+                if (kind == EXIT) {
+                    System.out.flush();
+                    return in.readInt();
+                }
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                (kind == OUT ? System.out : System.err).write(bytes, 0, bytes.length);
+            }
+        } catch (IOException excp) {
+            throw error("Lost the gitlet daemon: %s", excp.getMessage());
+        }
+    }
+
+    /** A connection to the daemon of the current directory, or null. */
+    private static SocketChannel connect() {
+        try {
+            return SocketChannel.open(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Output written to one channel of a response, sent as one frame per
+     *  write. */
+    private static class FrameStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte channel;
+
+        FrameStream(DataOutputStream out, byte channel) {
+            this.out = out;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.writeByte(channel);
+            out.writeInt(length);
+            out.write(bytes, offset, length);
+        }
+    }
+}
@@ -0,0 +1,577 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line based differences between two versions of a file, printed as a
+ *  unified diff.
+ *
+ *  Both versions are kept as the bytes they were read as and the offsets
+ *  of their lines; equal lines are numbered alike (see Lines.intern) so the
+ *  algorithm only compares ints, and output copies line bytes straight to
+ *  the stream, never building Strings of the files.
+ *
+ *  The edit script is found with Myers' O(ND) algorithm after the common
+ *  head and tail are stripped and, as xdiff does, the lines that occur in
+ *  only one version are taken out: they are deleted or inserted whatever
+ *  the script, so the search runs on the lines left, and a file rewritten
+ *  from scratch costs linear time.  While the search trace fits in
+ *  TRACE_BUDGET ints, the greedy forward search is kept and walked back
+ *  (O(D^2) space) and the script is the shortest one; larger inputs use
+ *  the linear space variant, which finds the middle snake of the edit path
+ *  and recurses on both halves, run between anchors of unique lines (see
+ *  anchored) so that many edits spread over a large file cost near linear
+ *  time.  A middle snake not found within maxCost steps is replaced by the
+ *  furthest point reached (see middleSnake), so that files with few
+ *  anchors and many edits cost O((N + M) * maxCost) at the price of a
+ *  longer script.
+ */
+class Diff {
+
+    /** Lines of context around each change. */
+    static final int CONTEXT = 3;
+
+    /** Ints the greedy search may keep before the linear space variant is
+     *  used instead. */
+    static final int TRACE_BUDGET = 1 << 20;
+
+    /** Fewest steps a middle snake is searched for before the search
+     *  settles for the furthest point reached, as XDL_MAX_COST_MIN. */
+    static final int MIN_COST = 256;
+
+    /** How far into a file a NUL byte makes it binary. */
+    private static final int BINARY_PROBE = 8000;
+
+    /** The lines of one version of a file. */
+    static class Lines {
+        final byte[] bytes;
+        /** Start of each line, and bytes.length after the last. */
+        final int[] starts;
+        final int count;
+        /** Line numbers, equal for equal lines across the compared versions. */
+        int[] ids;
+
+        Lines(byte[] bytes) {
+            this.bytes = bytes;
+            int n = 0;
+            for (byte b : bytes) {
+                if (b == '\n') {
+                    n += 1;
+                }
+            }
+            if (bytes.length > 0 && bytes[bytes.length - 1] != '\n') {
+                n += 1;
+            }
+            count = n;
+            starts = new int[n + 1];
+            int line = 1;
+            for (int i = 0; i < bytes.length && line < n; i += 1) {
+                if (bytes[i] == '\n') {
+                    starts[line] = i + 1;
+                    line += 1;
+                }
+            }
+            starts[n] = bytes.length;
+        }
+
+        boolean isBinary() {
+            for (int i = 0; i < Math.min(bytes.length, BINARY_PROBE); i += 1) {
+                if (bytes[i] == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Number the lines, sharing NUMBERS with the other version. */
+        void intern(HashMap<Key, Integer> numbers) {
+            ids = new int[count];
+            for (int i = 0; i < count; i += 1) {
+                Key key = new Key(bytes, starts[i], starts[i + 1]);
+                Integer id = numbers.putIfAbsent(key, numbers.size());
+                ids[i] = id == null ? numbers.size() - 1 : id;
+            }
+        }
+
+        /** Print line I with PREFIX. */
+        void print(PrintStream out, char prefix, int i) {
+            out.print(prefix);
+            out.write(bytes, starts[i], starts[i + 1] - starts[i]);
+            if (i == count - 1 && bytes[bytes.length - 1] != '\n') {
+                out.println();
+                out.println("\\ No newline at end of file");
+            }
+        }
+    }
+
+    /** A line, as a range of bytes, compared by content. */
+    private static class Key {
+        private final byte[] bytes;
+        private final int start;
+        private final int end;
+        private final int hash;
+
+        Key(byte[] bytes, int start, int end) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+            int h = 1;
+            for (int i = start; i < end; i += 1) {
+                h = 31 * h + bytes[i];
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return hash == k.hash && Arrays.equals(bytes, start, end, k.bytes, k.start, k.end);
+        }
+    }
+
+    /** Lines of A deleted and lines of B inserted by the edit script. */
+    final boolean[] deleted;
+    final boolean[] inserted;
+
+    /** The line numbers searched: those of both versions between the
+     *  common head and tail that occur in the other version, and which of
+     *  them the search deleted and inserted. */
+    private final int[] a;
+    private final int[] b;
+    private final boolean[] aEdits;
+    private final boolean[] bEdits;
+    /** Steps a middle snake is searched for, see middleSnake. */
+    private final int maxCost;
+
+    /** An edit script turning X into Y; the shortest one unless the
+     *  versions are large and very different. */
+    Diff(Lines x, Lines y) {
+        HashMap<Key, Integer> numbers = new HashMap<>();
+        x.intern(numbers);
+        y.intern(numbers);
+        int[] xs = x.ids;
+        int[] ys = y.ids;
+        deleted = new boolean[xs.length];
+        inserted = new boolean[ys.length];
+        int lo = 0;
+        int xHi = xs.length;
+        int yHi = ys.length;
+        while (lo < xHi && lo < yHi && xs[lo] == ys[lo]) {
+            lo += 1;
+        }
+        while (lo < xHi && lo < yHi && xs[xHi - 1] == ys[yHi - 1]) {
+            xHi -= 1;
+            yHi -= 1;
+        }
+        boolean[] inX = new boolean[numbers.size()];
+        boolean[] inY = new boolean[numbers.size()];
+        for (int i = lo; i < xHi; i += 1) {
+            inX[xs[i]] = true;
+        }
+        for (int j = lo; j < yHi; j += 1) {
+            inY[ys[j]] = true;
+        }
+        int[] aLines = kept(xs, lo, xHi, inY, deleted);
+        int[] bLines = kept(ys, lo, yHi, inX, inserted);
+        a = new int[aLines.length];
+        b = new int[bLines.length];
+        for (int i = 0; i < a.length; i += 1) {
+            a[i] = xs[aLines[i]];
+        }
+        for (int j = 0; j < b.length; j += 1) {
+            b[j] = ys[bLines[j]];
+        }
+        aEdits = new boolean[a.length];
+        bEdits = new boolean[b.length];
+        maxCost = Math.max(MIN_COST, (int) Math.sqrt(a.length + b.length));
+        if (!greedy(0, a.length, 0, b.length)) {
+            anchored(0, a.length, 0, b.length, numbers.size());
+        }
+        for (int i = 0; i < a.length; i += 1) {
+            deleted[aLines[i]] = aEdits[i];
+        }
+        for (int j = 0; j < b.length; j += 1) {
+            inserted[bLines[j]] = bEdits[j];
+        }
+    }
+
+    /** The indices of the lines of IDS[LO .. HI) whose number is in OTHER;
+     *  the others are set in EDITS. */
+    private static int[] kept(int[] ids, int lo, int hi, boolean[] other, boolean[] edits) {
+        int[] result = new int[hi - lo];
+        int count = 0;
+        for (int i = lo; i < hi; i += 1) {
+            if (other[ids[i]]) {
+                result[count] = i;
+                count += 1;
+            } else {
+                edits[i] = true;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /** Mark the edits of A[ALO .. AHI) and B[BLO .. BHI), whose line
+     *  numbers are below DISTINCT, for inputs too different for greedy:
+     *  lines occurring exactly once in each that keep their order (the
+     *  longest such run, found by patience sorting) are taken as matched,
+     *  and the linear space search runs between them.  Its cost grows with
+     *  the edits between two anchors rather than with all of them, at the
+     *  price of not always finding the shortest script. */
+    private void anchored(int aLo, int aHi, int bLo, int bHi, int distinct) {
+        int[] countA = new int[distinct];
+        int[] countB = new int[distinct];
+        int[] whereB = new int[distinct];
+        for (int i = aLo; i < aHi; i += 1) {
+            countA[a[i]] += 1;
+        }
+        for (int j = bLo; j < bHi; j += 1) {
+            countB[b[j]] += 1;
+            whereB[b[j]] = j;
+        }
+        /* Unique common lines in the order of A, with their place in B. */
+        int[] uniqueA = new int[aHi - aLo];
+        int[] uniqueB = new int[aHi - aLo];
+        int count = 0;
+        for (int i = aLo; i < aHi; i += 1) {
+            if (countA[a[i]] == 1 && countB[a[i]] == 1) {
+                uniqueA[count] = i;
+                uniqueB[count] = whereB[a[i]];
+                count += 1;
+            }
+        }
+        /* Longest increasing run of uniqueB: TOPS[k] is the entry ending
+         * the best run of length k + 1 found so far, PREVIOUS links runs. */
+        int[] tops = new int[count];
+        int[] previous = new int[count];
+        int piles = 0;
+        for (int k = 0; k < count; k += 1) {
+            int lo = 0;
+            int hi = piles;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (uniqueB[tops[mid]] < uniqueB[k]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[k] = lo > 0 ? tops[lo - 1] : -1;
+            tops[lo] = k;
+            piles = Math.max(piles, lo + 1);
+        }
+        int[] anchors = new int[piles];
+        for (int k = piles - 1, at = piles > 0 ? tops[piles - 1] : -1; k >= 0; k -= 1) {
+            anchors[k] = at;
+            at = previous[at];
+        }
+        int i = aLo;
+        int j = bLo;
+        for (int anchor : anchors) {
+            compare(i, uniqueA[anchor], j, uniqueB[anchor]);
+            i = uniqueA[anchor] + 1;
+            j = uniqueB[anchor] + 1;
+        }
+        compare(i, aHi, j, bHi);
+    }
+
+    /** True iff nothing was deleted or inserted. */
+    boolean isEmpty() {
+        for (boolean d : deleted) {
+            if (d) {
+                return false;
+            }
+        }
+        for (boolean i : inserted) {
+            if (i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Find the edit script of A[ALO .. AHI) and B[BLO .. BHI) by the greedy
+     *  forward search, keeping V of every step and walking it back.
+     *  Returns false, having marked nothing, if the trace would exceed
+     *  TRACE_BUDGET. */
+    private boolean greedy(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int max = n + m;
+        int offset = max + 1;
+        List<int[]> trace = new ArrayList<>();
+        long kept = 0;
+        int[] v = new int[2 * max + 3];
+        for (int d = 0; d <= max; d += 1) {
+            kept += 2 * d + 1;
+            if (kept > TRACE_BUDGET) {
+                return false;
+            }
+            /* Only diagonals -d .. d are read, so keep just those. */
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])
+                        ? v[offset + k + 1] : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    backtrack(trace, aLo, bLo, n, m);
+                    return true;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Mark the edits of the path found by greedy, whose step D started
+     *  from TRACE.get(D), ending at (N, M). */
+    private void backtrack(List<int[]> trace, int aLo, int bLo, int n, int m) {
+        int x = n;
+        int y = m;
+        for (int d = trace.size() - 1; d > 0; d -= 1) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            /* v holds diagonals -d .. d at 0 .. 2d. */
+            boolean down = k == -d || (k != d && v[d + k - 1] < v[d + k + 1]);
+            int prevK = down ? k + 1 : k - 1;
+            int prevX = v[d + prevK];
+            int prevY = prevX - prevK;
+            if (down) {
+                bEdits[bLo + prevY] = true;
+            } else {
+                aEdits[aLo + prevX] = true;
+            }
+            x = prevX;
+            y = prevY;
+        }
+    }
+
+    /** Mark the edits turning A[ALO .. AHI) into B[BLO .. BHI), in linear
+     *  space. */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi) {
+            Arrays.fill(bEdits, bLo, bHi, true);
+        } else if (bLo == bHi) {
+            Arrays.fill(aEdits, aLo, aHi, true);
+        } else {
+            int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+            compare(aLo, snake[0], bLo, snake[1]);
+            compare(snake[2], aHi, snake[3], bHi);
+        }
+    }
+
+    /** The middle snake of the edit path of A[ALO .. AHI) and
+     *  B[BLO .. BHI), as {x, y, u, v}: it runs from (x, y) to (u, v) in
+     *  absolute line numbers.  Both ranges must be non empty and differ at
+     *  both ends, so each half has fewer edits than the whole.  After
+     *  maxCost steps without finding it, the point on the furthest reaching
+     *  diagonal, forwards or backwards, is returned as an empty snake
+     *  instead: the halves are then still smaller, but the edit path
+     *  through that point may not be the shortest. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int offset = max + 1;
+        /* Furthest x on each diagonal forwards, and furthest distance from
+         * the end on each diagonal of the reversed sequences backwards. */
+        int[] vf = new int[2 * max + 3];
+        int[] vb = new int[2 * max + 3];
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && vf[offset + k - 1] < vf[offset + k + 1])
+                        ? vf[offset + k + 1] : vf[offset + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vf[offset + k] = x;
+                int c = delta - k;
+                if (odd && c >= -(d - 1) && c <= d - 1 && x + vb[offset + c] >= n) {
+                    return new int[] {aLo + x0, bLo + y0, aLo + x, bLo + y};
+                }
+            }
+            for (int c = -d; c <= d; c += 2) {
+                int x = c == -d || (c != d && vb[offset + c - 1] < vb[offset + c + 1])
+                        ? vb[offset + c + 1] : vb[offset + c - 1] + 1;
+                int y = x - c;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vb[offset + c] = x;
+                int k = delta - c;
+                if (!odd && k >= -d && k <= d && x + vf[offset + k] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - x0, bHi - y0};
+                }
+            }
+            if (d >= maxCost) {
+                int[] split = furthest(vf, vb, d, offset, aLo, aHi, bLo, bHi);
+                if (split != null) {
+                    return split;
+                }
+            }
+        }
+        throw new IllegalStateException("No middle snake.");
+    }
+
+    /** The point of middleSnake's search after D steps that is furthest
+     *  from its start, strictly inside A[ALO .. AHI) x B[BLO .. BHI), as an
+     *  empty snake, or null if there is none. */
+    private static int[] furthest(int[] vf, int[] vb, int d, int offset,
+                                  int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int best = 0;
+        int[] result = null;
+        for (int k = -d; k <= d; k += 2) {
+            for (int[] v : new int[][] {vf, vb}) {
+                int x = v[offset + k];
+                int y = x - k;
+                if (x >= 0 && y >= 0 && x <= n && y <= m && x + y > best && x + y < n + m) {
+                    best = x + y;
+                    result = v == vf ? new int[] {aLo + x, bLo + y, aLo + x, bLo + y}
+                            : new int[] {aHi - x, bHi - y, aHi - x, bHi - y};
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Print the unified diff of X and Y, the versions of PATH in A and in
+     *  B; a null version is a missing file.  Nothing is printed if they
+     *  have the same content. */
+    static void print(PrintStream out, String path, Lines x, Lines y) {
+        Lines left = x == null ? new Lines(new byte[0]) : x;
+        Lines right = y == null ? new Lines(new byte[0]) : y;
+        if (x != null && y != null && Arrays.equals(left.bytes, right.bytes)) {
+            return;
+        }
+        out.println("diff --gitlet a/" + path + " b/" + path);
+        if (x == null) {
+            out.println("new file");
+        } else if (y == null) {
+            out.println("deleted file");
+        }
+        if (left.isBinary() || right.isBinary()) {
+            out.println("Binary files " + (x == null ? "/dev/null" : "a/" + path) + " and "
+                    + (y == null ? "/dev/null" : "b/" + path) + " differ");
+            return;
+        }
+        out.println("--- " + (x == null ? "/dev/null" : "a/" + path));
+        out.println("+++ " + (y == null ? "/dev/null" : "b/" + path));
+        new Diff(left, right).printHunks(out, left, right);
+    }
+
+    /** The changes in order, each as {start in A, end in A, start in B,
+     *  end in B}: lines A[start .. end) are replaced by B[start .. end). */
+    List<int[]> changes() {
+        List<int[]> changes = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < deleted.length || j < inserted.length) {
+            if ((i < deleted.length && deleted[i]) || (j < inserted.length && inserted[j])) {
+                int i0 = i;
+                int j0 = j;
+                while (i < deleted.length && deleted[i]) {
+                    i += 1;
+                }
+                while (j < inserted.length && inserted[j]) {
+                    j += 1;
+                }
+                changes.add(new int[] {i0, i, j0, j});
+            } else {
+                i += 1;
+                j += 1;
+            }
+        }
+        return changes;
+    }
+
+    /** Print the changes as hunks with CONTEXT lines around them. */
+    private void printHunks(PrintStream out, Lines x, Lines y) {
+        List<int[]> changes = changes();
+        int i;
+        int j;
+        for (int first = 0; first < changes.size(); ) {
+            int last = first;
+            while (last + 1 < changes.size()
+                    && changes.get(last + 1)[0] - changes.get(last)[1] <= 2 * CONTEXT) {
+                last += 1;
+            }
+            int[] start = changes.get(first);
+            int[] end = changes.get(last);
+            int aStart = Math.max(0, start[0] - CONTEXT);
+            int bStart = start[2] - (start[0] - aStart);
+            int aEnd = Math.min(deleted.length, end[1] + CONTEXT);
+            int bEnd = end[3] + (aEnd - end[1]);
+            out.println("@@ -" + range(aStart, aEnd - aStart) + " +" + range(bStart, bEnd - bStart) + " @@");
+            i = aStart;
+            j = bStart;
+            while (i < aEnd || j < bEnd) {
+                if (i < aEnd && deleted[i]) {
+                    x.print(out, '-', i);
+                    i += 1;
+                } else if (j < bEnd && inserted[j]) {
+                    y.print(out, '+', j);
+                    j += 1;
+                } else {
+                    x.print(out, ' ', i);
+                    i += 1;
+                    j += 1;
+                }
+            }
+            first = last + 1;
+        }
+    }
+
+    /** A hunk range as unified diffs write it: the first line numbered
+     *  from 1, or the line before an empty range, and the length if not 1. */
+    private static String range(int start, int length) {
+        if (length == 1) {
+            return String.valueOf(start + 1);
+        }
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    /** The lines of blob ID, or null for no blob. */
+    static Lines ofBlob(String id) {
+        return id == null ? null : new Lines(ObjectStore.readBlob(id).getBytes());
+    }
+
+    /** The lines of TEXT, for tests and messages. */
+    static Lines ofString(String text) {
+        return new Lines(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
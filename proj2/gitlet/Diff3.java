@@ -0,0 +1,122 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/** Three way merge of two versions of a file that both changed a common
+ *  base, line by line.
+ *
+ *  Both versions are diffed against the base (see Diff).  Changes of one
+ *  side that overlap or touch no change of the other are taken as they
+ *  are; where changes of both sides overlap or touch, the lines they
+ *  cover form one region, taken once if both sides made it the same and
+ *  written between conflict markers otherwise.  Everything else is the
+ *  base.  Apart from the two diffs this is one pass over the changes.
+ */
+class Diff3 {
+
+    /** The merged content. */
+    final byte[] merged;
+    /** Number of conflicting regions in MERGED. */
+    final int conflicts;
+
+    private Diff3(byte[] merged, int conflicts) {
+        this.merged = merged;
+        this.conflicts = conflicts;
+    }
+
+    /** Merge OURS and THEIRS, both changed from BASE. */
+    static Diff3 merge(Diff.Lines base, Diff.Lines ours, Diff.Lines theirs) {
+        List<int[]> mine = new Diff(base, ours).changes();
+        List<int[]> other = new Diff(base, theirs).changes();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                Math.max(ours.bytes.length, theirs.bytes.length));
+        int conflicts = 0;
+        /* Base lines before POS are written; the offsets turn base line
+         * numbers outside changes into line numbers of each side. */
+        int pos = 0;
+        int oursOffset = 0;
+        int theirsOffset = 0;
+        int i = 0;
+        int j = 0;
+        while (i < mine.size() || j < other.size()) {
+            boolean oursFirst = j == other.size()
+                    || (i < mine.size() && mine.get(i)[0] <= other.get(j)[0]);
+            int lo = oursFirst ? mine.get(i)[0] : other.get(j)[0];
+            int hi = lo;
+            int i1 = i;
+            int j1 = j;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                while (i1 < mine.size() && mine.get(i1)[0] <= hi) {
+                    hi = Math.max(hi, mine.get(i1)[1]);
+                    i1 += 1;
+                    grew = true;
+                }
+                while (j1 < other.size() && other.get(j1)[0] <= hi) {
+                    hi = Math.max(hi, other.get(j1)[1]);
+                    j1 += 1;
+                    grew = true;
+                }
+            }
+            write(out, base, pos, lo);
+            int oursLo = lo + oursOffset;
+            oursOffset += growth(mine, i, i1);
+            int oursHi = hi + oursOffset;
+            int theirsLo = lo + theirsOffset;
+            theirsOffset += growth(other, j, j1);
+            int theirsHi = hi + theirsOffset;
+            if (j1 == j) {
+                write(out, ours, oursLo, oursHi);
+            } else if (i1 == i) {
+                write(out, theirs, theirsLo, theirsHi);
+            } else if (Arrays.equals(ours.bytes, ours.starts[oursLo], ours.starts[oursHi],
+                    theirs.bytes, theirs.starts[theirsLo], theirs.starts[theirsHi])) {
+                write(out, ours, oursLo, oursHi);
+            } else {
+                conflicts += 1;
+                writeMarker(out, "<<<<<<< HEAD\n");
+                writeLines(out, ours, oursLo, oursHi);
+                writeMarker(out, "=======\n");
+                writeLines(out, theirs, theirsLo, theirsHi);
+                writeMarker(out, ">>>>>>>\n");
+            }
+            pos = hi;
+            i = i1;
+            j = j1;
+        }
+        write(out, base, pos, base.count);
+        return new Diff3(out.toByteArray(), conflicts);
+    }
+
+    /** How many lines CHANGES[FROM .. TO) add to their side. */
+    private static int growth(List<int[]> changes, int from, int to) {
+        int growth = 0;
+        for (int k = from; k < to; k += 1) {
+            int[] change = changes.get(k);
+            growth += (change[3] - change[2]) - (change[1] - change[0]);
+        }
+        return growth;
+    }
+
+    private static void write(ByteArrayOutputStream out, Diff.Lines lines, int from, int to) {
+        out.write(lines.bytes, lines.starts[from], lines.starts[to] - lines.starts[from]);
+    }
+
+    /** Write LINES[FROM .. TO) as whole lines, ending the last with a
+     *  newline if it had none, so that a marker can follow. */
+    private static void writeLines(ByteArrayOutputStream out, Diff.Lines lines, int from, int to) {
+        write(out, lines, from, to);
+        if (to > from && lines.bytes[lines.starts[to] - 1] != '\n') {
+            out.write('\n');
+        }
+    }
+
+    private static void writeMarker(ByteArrayOutputStream out, String marker) {
+        byte[] bytes = marker.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+    }
+}
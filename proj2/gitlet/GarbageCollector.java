@@ -0,0 +1,121 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/** Mark and sweep over the object store.
+ *
+ *  Marking starts from the commits the refs name and the blobs staged in
+ *  the index.  It walks the history, then the trees of every commit
+ *  reached, then the blobs, which name their chunks.  Each step works on
+ *  a whole frontier in parallel; an id joins a concurrent set of its type
+ *  at most once, so shared history, trees and chunks are read only once.
+ *  Everything else is swept by ObjectStore.prune.
+ *
+ *  Deleting a commit invalidates the commit graph and the message index.
+ *  The graph is rebuilt over the live commits and the message index
+ *  dropped before anything is deleted, so neither ever names a commit
+ *  that is gone.  The message index is rebuilt by the next command that
+ *  needs it.
+ */
+class GarbageCollector {
+
+    private final Set<String> commits = ConcurrentHashMap.newKeySet();
+    private final Set<String> trees = ConcurrentHashMap.newKeySet();
+    private final Set<String> blobs = ConcurrentHashMap.newKeySet();
+    private final Set<String> chunks = ConcurrentHashMap.newKeySet();
+
+    /** Delete every object not reachable from ROOTCOMMITS or ROOTBLOBS.
+     *  Unless PRUNENOW ("gc --prune=now", as in git), loose objects stamped
+     *  in the second gc started or later are kept.  Returns {objects
+     *  deleted, bytes reclaimed}. */
+    static long[] collect(Collection<String> rootCommits, Collection<String> rootBlobs,
+                          boolean pruneNow) {
+        /* Loose objects stamped in this second or later may belong to a
+         * command running alongside; mtimes can be whole seconds.  With
+         * PRUNENOW no other command may be running. */
+        long since = pruneNow ? Long.MAX_VALUE : System.currentTimeMillis() / 1000 * 1000;
+        GarbageCollector gc = new GarbageCollector();
+        gc.mark(rootCommits, rootBlobs);
+
+        List<String> allCommits = ObjectStore.commitIds();
+        if (allCommits.size() > gc.commits.size()) {
+            List<String> live = new ArrayList<>(gc.commits);
+            live.sort(null);
+            CommitGraph.rebuild(live);
+            MessageIndex.clear();
+        }
+        return ObjectStore.prune(gc::isLive, since);
+    }
+
+    private void mark(Collection<String> rootCommits, Collection<String> rootBlobs) {
+        List<String> frontier = rootCommits.stream().filter(commits::add)
+                .collect(Collectors.toList());
+        while (!frontier.isEmpty()) {
+            frontier = frontier.parallelStream().flatMap(id -> parents(id).stream())
+                    .filter(commits::add).collect(Collectors.toList());
+        }
+
+        frontier = commits.parallelStream().map(id -> ObjectStore.readCommit(id).getTree())
+                .filter(id -> id != null && trees.add(id)).collect(Collectors.toList());
+        while (!frontier.isEmpty()) {
+            frontier = frontier.parallelStream().flatMap(id -> visitTree(id).stream())
+                    .collect(Collectors.toList());
+        }
+
+        for (String id : rootBlobs) {
+            if (ObjectStore.hasBlob(id)) {
+                blobs.add(id);
+            }
+        }
+        blobs.parallelStream().forEach(id -> chunks.addAll(ObjectStore.readBlob(id).getChunks()));
+    }
+
+    /** The parents of commit ID. */
+    private static List<String> parents(String id) {
+        Commit commit = ObjectStore.readCommit(id);
+        List<String> result = new ArrayList<>(2);
+        if (commit.getxParent() != null) {
+            result.add(commit.getxParent());
+        }
+        if (commit.getyParent() != null) {
+            result.add(commit.getyParent());
+        }
+        return result;
+    }
+
+    /** Mark the entries of tree ID and return the sub trees not marked
+     *  before. */
+    private List<String> visitTree(String id) {
+        List<String> subtrees = new ArrayList<>();
+        for (Tree.Entry entry : Tree.read(id).entries()) {
+            if (entry.kind == Tree.TREE) {
+                if (trees.add(entry.id)) {
+                    subtrees.add(entry.id);
+                }
+            } else {
+                blobs.add(entry.id);
+            }
+        }
+        return subtrees;
+    }
+
+    private boolean isLive(byte type, String id) {
+        switch (type) {
+            case ObjectStore.COMMIT:
+                return commits.contains(id);
+            case ObjectStore.TREE:
+                return trees.contains(id);
+            case ObjectStore.BLOB:
+                return blobs.contains(id);
+            case ObjectStore.CHUNK:
+                return chunks.contains(id);
+            default:
+                return true;
+        }
+    }
+}
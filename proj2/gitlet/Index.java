@@ -0,0 +1,318 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static gitlet.Utils.*;
+
+/** The staging area: a single binary file, .gitlet/index, listing every
+ *  file staged for addition or for removal, sorted by path.  It also caches
+ *  the stat data of tracked files (TRACKED entries), so that status only
+ *  has to re-hash the files whose stat data changed, see WorkingTree.
+ *
+ *  The file is a 12 byte header ("GNDX", version, count) followed by one
+ *  entry per path:
+ *      path length (short), path (UTF-8), raw blob id (20 bytes),
+ *      state (TRACKED, ADDED or REMOVED), mode (int), size (long),
+ *      mtime (long), inode (long)
+ *  Size, mtime and inode are the file's stat data when its blob id was
+ *  computed; mode is 0100755 for executable files and 0100644 otherwise.
+ *  The blob id of a TRACKED entry is the id of the working file with that
+ *  stat data, which is the committed id unless the file was modified.
+ *
+ *  The whole index is read into a sorted map, so a lookup is O(log n), and
+ *  written back by writing index.lock and renaming it over index, so a
+ *  reader never sees a half written index.
+ *
+ *  Repositories made before the index existed kept one serialized Blob,
+ *  named by its id, per file staged for addition in .gitlet/staging and
+ *  per file staged for removal in .gitlet/removal.  Without an index file,
+ *  what they hold is read as staged, and they are deleted once the index
+ *  is written.
+ */
+class Index {
+
+    static final File INDEX_FILE = join(Repository.GITLET_DIR, "index");
+    static final File LOCK_FILE = join(Repository.GITLET_DIR, "index.lock");
+    static final File LEGACY_STAGING_DIR = join(Repository.GITLET_DIR, "staging");
+    static final File LEGACY_REMOVAL_DIR = join(Repository.GITLET_DIR, "removal");
+
+    static final byte TRACKED = 0;
+    static final byte ADDED = 1;
+    static final byte REMOVED = 2;
+
+    static final int REGULAR_MODE = 0100644;
+    static final int EXECUTABLE_MODE = 0100755;
+
+    private static final int MAGIC = 0x474e4458; // "GNDX"
+    private static final int VERSION = 2;
+    private static final int RAW_LENGTH = UID_LENGTH / 2;
+
+    /** One staged path. */
+    static class Entry {
+        final String path;
+        final String blobId;
+        final byte state;
+        final int mode;
+        final long size;
+        final long mtime;
+        final long inode;
+
+        Entry(String path, String blobId, byte state, int mode, long size, long mtime, long inode) {
+            this.path = path;
+            this.blobId = blobId;
+            this.state = state;
+            this.mode = mode;
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+        }
+
+        Entry(String path, String blobId, byte state, BasicFileAttributes attrs, boolean executable) {
+            this(path, blobId, state, executable ? EXECUTABLE_MODE : REGULAR_MODE, attrs.size(),
+                    attrs.lastModifiedTime().toMillis(), WorkingTree.inode(attrs));
+        }
+
+        /** True iff ATTRS is the stat data this entry was made from. */
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && mtime == attrs.lastModifiedTime().toMillis()
+                    && inode == WorkingTree.inode(attrs);
+        }
+    }
+
+    /** Entries by path.  add() stages files from several threads. */
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    /** Modification time of the index file when it was read.  A file
+     *  modified at or after this time may have changed again within the
+     *  same clock tick after its entry was made, so its stat data proves
+     *  nothing ("racy"). */
+    private long timestamp;
+
+    /** Length of the index file when it was last read or written by this
+     *  process, -1 if there was none.  With TIMESTAMP, tells whether some
+     *  other process wrote it since, see isCurrent. */
+    private long fileLength = -1;
+
+    /** True iff this index holds what LEGACY_STAGING_DIR and
+     *  LEGACY_REMOVAL_DIR have staged, and they are still to be deleted. */
+    private boolean legacy;
+
+    /** Read .gitlet/index.  If there is none, return an index holding
+     *  what the legacy staging directories hold, if anything. */
+    static Index read() {
+        Index index = new Index();
+        if (!INDEX_FILE.exists()) {
+            index.readLegacy(LEGACY_STAGING_DIR, ADDED);
+            index.readLegacy(LEGACY_REMOVAL_DIR, REMOVED);
+            return index;
+        }
+        index.timestamp = INDEX_FILE.lastModified();
+        byte[] bytes = readContents(INDEX_FILE);
+        index.fileLength = bytes.length;
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw error("Corrupt index.");
+        }
+        int count = in.getInt();
+        for (int i = 0; i < count; i += 1) {
+            int length = in.getShort() & 0xffff;
+            String path = new String(bytes, in.position(), length, StandardCharsets.UTF_8);
+            String blobId = toHexId(bytes, in.position() + length);
+            in.position(in.position() + length + RAW_LENGTH);
+            Entry entry = new Entry(path, blobId, in.get(), in.getInt(), in.getLong(), in.getLong(),
+                    in.getLong());
+            index.entries.put(path, entry);
+        }
+        return index;
+    }
+
+    /** Stage, with state STATE, the file of each blob in DIR, a legacy
+     *  staging directory.  Their stat data is unknown, so their working
+     *  files are hashed again when compared. */
+    private void readLegacy(File dir, byte state) {
+        List<String> ids = plainFilenamesIn(dir);
+        if (ids == null) {
+            return;
+        }
+        for (String id : ids) {
+            String path = Blob.decode(readContents(join(dir, id))).getFileName();
+            entries.put(path, new Entry(path, id, state, state == ADDED ? REGULAR_MODE : 0, 0, 0, 0));
+            legacy = true;
+        }
+    }
+
+    /** Write this index to index.lock and rename it over .gitlet/index,
+     *  holding the WriteLock. */
+    void write() {
+        byte[] bytes = encode();
+        WriteLock.beginUpdate();
+        boolean moved = false;
+        try {
+            writeContents(LOCK_FILE, bytes);
+            Files.move(LOCK_FILE.toPath(), INDEX_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            /* The index is either the old or the new one, so readers can
+             * go on whichever way this ended. */
+            if (!moved) {
+                LOCK_FILE.delete();
+            }
+            WriteLock.endUpdate();
+        }
+        written();
+    }
+
+    /** Have TX write this index, as it is now, when it commits.  Call
+     *  written() after the commit. */
+    void write(Journal tx) {
+        tx.write(INDEX_FILE, encode());
+    }
+
+    /** Note that the index file is what this index last wrote, so this
+     *  index can be used further. */
+    void written() {
+        timestamp = INDEX_FILE.lastModified();
+        fileLength = INDEX_FILE.length();
+        if (legacy) {
+            /* The index now holds what they did. */
+            for (File dir : new File[] {LEGACY_STAGING_DIR, LEGACY_REMOVAL_DIR}) {
+                List<String> ids = plainFilenamesIn(dir);
+                for (String id : ids == null ? List.<String>of() : ids) {
+                    join(dir, id).delete();
+                }
+                dir.delete();
+            }
+            legacy = false;
+        }
+    }
+
+    /** The content of the index file. */
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                byte[] path = entry.path.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(path.length);
+                out.write(path);
+                out.write(toRawId(entry.blobId));
+                out.writeByte(entry.state);
+                out.writeInt(entry.mode);
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.inode);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** True iff the index file is still the one this index was read from
+     *  or last wrote. */
+    boolean isCurrent() {
+        return INDEX_FILE.exists() ? INDEX_FILE.lastModified() == timestamp
+                && INDEX_FILE.length() == fileLength : fileLength < 0;
+    }
+
+    /** The entry for PATH, or null if PATH is not staged. */
+    Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /** Stage FILE, whose content is blob BLOBID, for addition as PATH. */
+    void add(String path, String blobId, File file) {
+        entries.put(path, new Entry(path, blobId, ADDED, WorkingTree.stat(file), file.canExecute()));
+    }
+
+    /** Record that the tracked, unstaged working file PATH, whose stat data
+     *  is ATTRS, has content BLOBID. */
+    void track(String path, String blobId, BasicFileAttributes attrs, boolean executable) {
+        entries.put(path, new Entry(path, blobId, TRACKED, attrs, executable));
+    }
+
+    /** Stage PATH, whose committed content is blob BLOBID, for removal. */
+    void remove(String path, String blobId) {
+        entries.put(path, new Entry(path, blobId, REMOVED, 0, 0, 0, 0));
+    }
+
+    /** True iff ENTRY was made from stat data ATTRS and is not racy, so the
+     *  working file still has content ENTRY.blobId. */
+    boolean isUpToDate(Entry entry, BasicFileAttributes attrs) {
+        return entry.state != REMOVED && entry.matches(attrs) && entry.mtime < timestamp;
+    }
+
+    /** Forget whatever is staged or cached for PATH.  Returns the entry, or null. */
+    Entry unstage(String path) {
+        return entries.remove(path);
+    }
+
+    /** After a commit of everything staged: files staged for addition are
+     *  now tracked with unchanged stat data, removed files are gone. */
+    void committed() {
+        for (Entry entry : entries.values()) {
+            if (entry.state == ADDED) {
+                entries.put(entry.path, new Entry(entry.path, entry.blobId, TRACKED,
+                        entry.mode, entry.size, entry.mtime, entry.inode));
+            } else if (entry.state == REMOVED) {
+                entries.remove(entry.path);
+            }
+        }
+    }
+
+    /** True iff PATH is staged with state STATE. */
+    boolean is(String path, byte state) {
+        Entry entry = entries.get(path);
+        return entry != null && entry.state == state;
+    }
+
+    /** Entries staged for addition, sorted by path. */
+    List<Entry> added() {
+        return withState(ADDED);
+    }
+
+    /** Entries staged for removal, sorted by path. */
+    List<Entry> removed() {
+        return withState(REMOVED);
+    }
+
+    /** True iff anything is staged for addition or removal. */
+    boolean hasStaged() {
+        for (Entry entry : entries.values()) {
+            if (entry.state != TRACKED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    private List<Entry> withState(byte state) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.state == state) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+}
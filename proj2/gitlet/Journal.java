@@ -0,0 +1,273 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+
+/** Crash safe writes.
+ *
+ *  Every file is written whole to .gitlet/tmp and renamed over its target
+ *  (writeAtomic), so a reader sees the old or the new content, never part
+ *  of it.  Objects are content addressed and only ever added, so that is
+ *  all they need.  Updates that must happen together, like moving a
+ *  branch and clearing the index at a commit, go through a transaction:
+ *      1. the objects written so far are made durable (see SYNC);
+ *      2. all updates are written to .gitlet/journal, which commits them;
+ *      3. each update is applied with writeAtomic;
+ *      4. the journal is deleted.
+ *  recover(), run before every command, applies a journal left by a
+ *  process that died after step 2 and drops temp files of dead processes,
+ *  so a crash leaves the repository as it was before the transaction or
+ *  as it is after it.  Steps 2 to 4 run holding the WriteLock, marked as
+ *  an update so that readers do not look at refs and the index halfway.
+ *
+ *  Journal encoding: tag 'J', version, update count (varint), then each
+ *  update as the path relative to .gitlet, a kind byte (WRITE or DELETE)
+ *  and for writes the content (varint length, bytes), followed by the
+ *  CRC32 of all of that.
+ */
+class Journal {
+
+    static final File JOURNAL_FILE = join(Repository.GITLET_DIR, "journal");
+    static final File TMP_DIR = join(Repository.GITLET_DIR, "tmp");
+
+    static final byte TAG = 'J';
+    static final byte VERSION = 1;
+
+    static final byte DELETE = 0;
+    static final byte WRITE = 1;
+
+    /** When writes reach the disk, from -Dgitlet.fsync:
+     *  "batch" (the default) -- objects are synced together when a
+     *      transaction commits, the journal and its updates as written;
+     *  "each" -- every object is synced as it is written;
+     *  "off" -- nothing is synced; a crash of the machine, rather than of
+     *      gitlet, may lose recent commits. */
+    static final String SYNC = System.getProperty("gitlet.fsync", "batch");
+
+    /** Objects written but not yet synced, in "batch" mode.  Objects are
+     *  written from several threads by add. */
+    private static final List<Path> UNSYNCED = Collections.synchronizedList(new ArrayList<>());
+
+    private static final long PID = ProcessHandle.current().pid();
+    private static final AtomicLong TEMP_COUNTER = new AtomicLong();
+
+    /** The updates of this transaction by file; null content deletes it. */
+    private final LinkedHashMap<File, byte[]> updates = new LinkedHashMap<>();
+
+    /** Set FILE to BYTES when this transaction commits. */
+    void write(File file, byte[] bytes) {
+        updates.put(file, bytes);
+    }
+
+    /** Delete FILE when this transaction commits. */
+    void delete(File file) {
+        updates.put(file, null);
+    }
+
+    /** Make all updates of this transaction, or, if the process dies on
+     *  the way, leave it for recover() to finish. */
+    void commit() {
+        syncObjects();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(TAG);
+        out.write(VERSION);
+        Codec.writeVarint(out, updates.size());
+        Path root = Repository.GITLET_DIR.toPath();
+        for (Map.Entry<File, byte[]> update : updates.entrySet()) {
+            Codec.writeString(out, root.relativize(update.getKey().toPath()).toString());
+            if (update.getValue() == null) {
+                out.write(DELETE);
+            } else {
+                out.write(WRITE);
+                Codec.writeVarint(out, update.getValue().length);
+                out.write(update.getValue(), 0, update.getValue().length);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.toByteArray());
+        out.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array(), 0, 4);
+        WriteLock.beginUpdate();
+        try {
+            writeAtomic(JOURNAL_FILE, out.toByteArray(), !SYNC.equals("off"));
+            apply(updates);
+            JOURNAL_FILE.delete();
+        } catch (RuntimeException excp) {
+            if (JOURNAL_FILE.exists()) {
+                /* Committed but not all applied: readers keep waiting
+                 * until the next holder of the lock replays the journal,
+                 * see WriteLock. */
+                WriteLock.release();
+            } else {
+                /* Nothing was replaced. */
+                WriteLock.endUpdate();
+            }
+            throw excp;
+        }
+        WriteLock.endUpdate();
+    }
+
+    /** Finish a transaction a dead process committed and remove the temp
+     *  files of dead processes. */
+    static void recover() {
+        if (JOURNAL_FILE.exists()) {
+            /* The journal may be one a live process is applying. */
+            WriteLock.acquire();
+            try {
+                if (JOURNAL_FILE.exists()) {
+                    apply(decode(readContents(JOURNAL_FILE)));
+                    JOURNAL_FILE.delete();
+                }
+            } finally {
+                WriteLock.release();
+            }
+        }
+        String[] temps = TMP_DIR.list();
+        if (temps != null) {
+            for (String name : temps) {
+                long pid = tempOwner(name);
+                if (pid != PID && ProcessHandle.of(pid).isEmpty()) {
+                    join(TMP_DIR, name).delete();
+                }
+            }
+        }
+    }
+
+    private static LinkedHashMap<File, byte[]> decode(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, Math.max(0, bytes.length - 4));
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (bytes.length < 4 || in.getInt(bytes.length - 4) != (int) crc.getValue()) {
+            throw error("Corrupt journal.");
+        }
+        Codec.readHeader(in, TAG, VERSION, "journal");
+        int count = (int) Codec.readVarint(in);
+        LinkedHashMap<File, byte[]> updates = new LinkedHashMap<>();
+        for (int i = 0; i < count; i += 1) {
+            File file = join(Repository.GITLET_DIR, Codec.readString(in));
+            if (in.get() == DELETE) {
+                updates.put(file, null);
+            } else {
+                byte[] content = new byte[(int) Codec.readVarint(in)];
+                in.get(content);
+                updates.put(file, content);
+            }
+        }
+        return updates;
+    }
+
+    /** Make UPDATES, each atomically; all are durable when this returns.
+     *  Applying them again has no further effect. */
+    private static void apply(LinkedHashMap<File, byte[]> updates) {
+        boolean sync = !SYNC.equals("off");
+        Set<Path> dirs = new HashSet<>();
+        for (Map.Entry<File, byte[]> update : updates.entrySet()) {
+            File file = update.getKey();
+            if (update.getValue() == null) {
+                file.delete();
+            } else {
+                writeAtomic(file, update.getValue(), sync);
+            }
+            dirs.add(file.getParentFile().toPath());
+        }
+        if (sync) {
+            for (Path dir : dirs) {
+                force(dir);
+            }
+        }
+    }
+
+    /** Write BYTES to FILE: to a temp file first, synced if SYNC is true,
+     *  then renamed over FILE. */
+    static void writeAtomic(File file, byte[] bytes, boolean sync) {
+        Path temp = tempFor(file);
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            if (sync) {
+                out.force(true);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.toFile().delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the object BYTES to FILE, synced according to SYNC. */
+    static void writeObject(File file, byte[] bytes) {
+        writeAtomic(file, bytes, SYNC.equals("each"));
+        if (SYNC.equals("batch")) {
+            UNSYNCED.add(file.toPath());
+        }
+    }
+
+    /** Make every object written so far durable, with its directory. */
+    static void syncObjects() {
+        List<Path> files;
+        synchronized (UNSYNCED) {
+            files = new ArrayList<>(UNSYNCED);
+            UNSYNCED.clear();
+        }
+        Set<Path> dirs = new HashSet<>();
+        for (Path file : files) {
+            force(file);
+            dirs.add(file.getParent());
+        }
+        for (Path dir : dirs) {
+            force(dir);
+        }
+    }
+
+    /** Sync PATH, a file or a directory, to disk. */
+    private static void force(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            /* Some systems cannot sync a directory; the files still are. */
+        }
+    }
+
+    /** A new temp file name for FILE, naming this process. */
+    private static Path tempFor(File file) {
+        if (!TMP_DIR.isDirectory()) {
+            TMP_DIR.mkdir();
+        }
+        return join(TMP_DIR, file.getName() + "." + PID + "." + TEMP_COUNTER.incrementAndGet()).toPath();
+    }
+
+    /** The process that made temp file NAME, or -1. */
+    private static long tempOwner(String name) {
+        String[] parts = name.split("\\.");
+        try {
+            return parts.length >= 3 ? Long.parseLong(parts[parts.length - 2]) : -1;
+        } catch (NumberFormatException excp) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.PrintStream;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/** The log engine.
+ *
+ *  History is walked over the commit graph rather than over commits: a
+ *  priority queue holds the graph positions still to be shown, largest
+ *  corrected date first (see CommitGraph), so commits come out newest
+ *  first and never before one of their descendants.  A commit is only
+ *  read when it is printed or a path filter has to look at its tree, so
+ *  the first page of a long history costs as many reads as it shows.
+ *  With paths, the changed-paths filter of each commit is asked first,
+ *  and only the commits it cannot rule out are read (see ChangedPaths).
+ *
+ *  Options, in any order:
+ *      -n N            show at most N commits
+ *      --since DATE    only commits made at or after DATE, given as
+ *                      yyyy-MM-dd or "yyyy-MM-dd HH:mm:ss", local time
+ *      --all-parents   follow second parents of merges too; otherwise
+ *                      only first parents are followed, as log always did
+ *      -- PATH...      only commits that changed one of the files or
+ *                      directories PATH from their first parent
+ */
+class Log {
+
+    /** Every this many commits printed, a log checks whether its reader
+     *  went away, as when piped into head, and stops if so. */
+    static final int CHECK_INTERVAL = 1024;
+
+    private int limit = Integer.MAX_VALUE;
+    private long since = Long.MIN_VALUE;
+    private boolean allParents;
+    private final List<String> paths = new ArrayList<>();
+    /** The changed-paths keys of PATHS, once needed. */
+    private List<int[]> keys;
+
+    /** The log asked for by the options ARGS. */
+    static Log parse(List<String> args) {
+        Log log = new Log();
+        for (int i = 0; i < args.size(); i += 1) {
+            String arg = args.get(i);
+            if (arg.equals("--")) {
+                for (String path : args.subList(i + 1, args.size())) {
+                    log.paths.add(path.replaceAll("/+$", ""));
+                }
+                break;
+            } else if (arg.equals("--all-parents")) {
+                log.allParents = true;
+            } else if (arg.equals("-n") && i + 1 < args.size()) {
+                i += 1;
+                try {
+                    log.limit = Integer.parseInt(args.get(i));
+                } catch (NumberFormatException excp) {
+                    throw error("Incorrect operands.");
+                }
+                if (log.limit < 0) {
+                    throw error("Incorrect operands.");
+                }
+            } else if (arg.equals("--since") && i + 1 < args.size()) {
+                i += 1;
+                log.since = parseDate(args.get(i));
+            } else {
+                throw error("Incorrect operands.");
+            }
+        }
+        if (log.paths.isEmpty() && args.contains("--")) {
+            throw error("Incorrect operands.");
+        }
+        return log;
+    }
+
+    /** Millis of DATE, in one of the formats --since takes. */
+    private static long parseDate(String date) {
+        for (String pattern : new String[] {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd"}) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.ENGLISH);
+            format.setLenient(false);
+            try {
+                return format.parse(date).getTime();
+            } catch (ParseException excp) {
+                continue;
+            }
+        }
+        throw error("Incorrect operands.");
+    }
+
+    /** Print the history of commit HEAD to OUT. */
+    void print(String head, PrintStream out) {
+        int start = CommitGraph.find(head);
+        if (start < 0) {
+            CommitGraph.rebuild();
+            start = CommitGraph.find(head);
+        }
+        PriorityQueue<Integer> queue = new PriorityQueue<>((p, q) -> {
+            int cmp = Long.compare(CommitGraph.correctedDate(q), CommitGraph.correctedDate(p));
+            return cmp != 0 ? cmp : Integer.compare(q, p);
+        });
+        BitSet queued = new BitSet();
+        queue.add(start);
+        queued.set(start);
+        DateFormat format = dateFormat();
+        int shown = 0;
+        while (!queue.isEmpty() && shown < limit) {
+            int pos = queue.poll();
+            /* Every commit left is older by corrected date, and a commit
+             * is never younger than its corrected date. */
+            if (CommitGraph.correctedDate(pos) < since) {
+                break;
+            }
+            int x = CommitGraph.firstParent(pos);
+            int y = CommitGraph.secondParent(pos);
+            if (x >= 0 && !queued.get(x)) {
+                queue.add(x);
+                queued.set(x);
+            }
+            if (allParents && y >= 0 && !queued.get(y)) {
+                queue.add(y);
+                queued.set(y);
+            }
+            if (!mayChangePaths(pos)) {
+                continue;
+            }
+            String id = CommitGraph.idAt(pos);
+            Commit commit = ObjectStore.readCommit(id);
+            if (commit.getDate().getTime() < since || !changesPaths(commit, x)) {
+                continue;
+            }
+            print(out, format, id, commit);
+            shown += 1;
+            if (shown % CHECK_INTERVAL == 0 && readerGone(out)) {
+                break;
+            }
+        }
+    }
+
+    /** False if the commit at graph position POS certainly changed none of
+     *  PATHS, as its changed-paths filter can tell without reading it. */
+    private boolean mayChangePaths(int pos) {
+        if (paths.isEmpty()) {
+            return true;
+        }
+        if (keys == null) {
+            keys = new ArrayList<>();
+            for (String path : paths) {
+                keys.add(ChangedPaths.key(path));
+            }
+        }
+        for (int[] key : keys) {
+            if (ChangedPaths.mayHaveChanged(pos, key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** True iff COMMIT, whose first parent is at graph position PARENT,
+     *  changed one of PATHS, or there are no PATHS. */
+    private boolean changesPaths(Commit commit, int parent) {
+        if (paths.isEmpty()) {
+            return true;
+        }
+        String tree = commit.getTree();
+        String parentTree = parent < 0 ? null
+                : ObjectStore.readCommit(CommitGraph.idAt(parent)).getTree();
+        for (String path : paths) {
+            if (!Objects.equals(Tree.idOf(tree, path), Tree.idOf(parentTree, path))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Print every commit of the graph to OUT, newest first. */
+    static void printAll(PrintStream out) {
+        DateFormat format = dateFormat();
+        for (int pos = CommitGraph.size() - 1; pos >= 0; pos -= 1) {
+            String id = CommitGraph.idAt(pos);
+            print(out, format, id, ObjectStore.readCommit(id));
+            if (pos % CHECK_INTERVAL == 0 && readerGone(out)) {
+                break;
+            }
+        }
+    }
+
+    /** Print COMMIT, named ID, to OUT as log shows it, its date formatted
+     *  with FORMAT. */
+    static void print(PrintStream out, DateFormat format, String id, Commit commit) {
+        out.println("===");
+        out.println("commit " + id);
+        out.println("Date: " + format.format(commit.getDate()));
+        out.println(commit.getMessage());
+        out.println();
+    }
+
+    /** A stream buffering what is printed on System.out, which must be
+     *  flushed at the end.  It replaces a println, and a write on an auto
+     *  flushed System.out, per line. */
+    static PrintStream output() {
+        return new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+    }
+
+    /** True iff writing OUT, from output(), failed, as it does once the
+     *  reader has gone.  System.out keeps that error to itself. */
+    private static boolean readerGone(PrintStream out) {
+        return out.checkError() || System.out.checkError();
+    }
+
+    /** The format of commit dates in logs. */
+    static DateFormat dateFormat() {
+        return new SimpleDateFormat("EEE MMM dd HH:mm:ss yyyy Z", Locale.ENGLISH);
+    }
+}
@@ -1,5 +1,10 @@
 package gitlet;
 
+import java.util.Arrays;
+import java.util.Set;
+
+import static gitlet.Utils.error;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  receive user's inputs, dispatch jobs to Repository, and do same upper level logic
  */
@@ -7,61 +12,107 @@ public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  If a gitlet daemon serves the current directory, the command is run
+     *  there instead, see Daemon.
      */
     public static void main(String[] args) {
+        try {
+            int status = Daemon.forward(args);
+            if (status > 0) {
+                System.exit(status);
+            } else if (status == 0) {
+                return;
+            }
+            if (Boolean.getBoolean("gitlet.stats")) {
+                Runtime.getRuntime().addShutdownHook(
+                    new Thread(() -> System.err.println(ObjectStore.cacheStats())));
+            }
+            run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    /** Commands run without holding the WriteLock: those that only read,
+     *  including push and upload-pack, which read here for another
+     *  repository, and those that run other commands or make the
+     *  repository, which take it themselves. */
+    private static final Set<String> LOCK_FREE = Set.of("log", "status", "global-log",
+            "find", "diff", "init", "clone", "batch", "daemon", "push", "upload-pack");
 
+    /** Run the command ARGS in this process.  A command that cannot go on
+     *  throws a GitletException whose message is what to print.  Commands
+     *  that write run holding the WriteLock, so that several processes can
+     *  share a repository. */
+    static void run(String[] args) {
         if (args.length == 0) {
-            System.out.println("Please enter a command.");
-            System.exit(0);
+            throw error("Please enter a command.");
         }
 
-
         String firstArg = args[0];
-        if (!firstArg.equals("init") && !Repository.GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+        /* A batch checks for itself, as it may start with init. */
+        if (!firstArg.equals("init") && !firstArg.equals("clone") && !firstArg.equals("batch")
+                && !Repository.GITLET_DIR.exists()) {
+            throw error("Not in an initialized Gitlet directory.");
+        }
+        boolean locked = Repository.GITLET_DIR.exists() && !LOCK_FREE.contains(firstArg);
+        if (locked) {
+            WriteLock.acquire();
+        }
+        try {
+            if (Repository.GITLET_DIR.exists()) {
+                Journal.recover();
+                /* A daemon or batch may hold what other processes changed
+                 * since its last command. */
+                Repository.reload();
+            }
+            dispatch(args);
+        } finally {
+            if (locked) {
+                WriteLock.release();
+            }
         }
+    }
 
+    private static void dispatch(String[] args) {
+        String firstArg = args[0];
         switch (firstArg) {
             case "init":
                 if (Repository.GITLET_DIR.exists()) {
-                    System.out.println("A Gitlet version-control system already exists in the current directory.");
-                    System.exit(0);
+                    throw error("A Gitlet version-control system already exists in the current directory.");
                 }
                 Repository.init();
                 break;
             case "add":
-                if (args.length > 2) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                if (args.length < 2) {
+                    throw error("Incorrect operands.");
                 }
-                Repository.add(args[1]);
+                Repository.add(Arrays.asList(args).subList(1, args.length));
                 break;
             case "commit":
                 if (args.length > 2) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 if (args.length == 1) {
-                    System.out.println("Please enter a commit message.");
-                    System.exit(0);
+                    throw error("Please enter a commit message.");
                 }
                 Repository.commit(args[1]);
                 break;
             case "checkout":
-                if (args[1].equals("--")) {
+                if (args.length < 2) {
+                    throw error("Incorrect operands.");
+                } else if (args[1].equals("--")) {
                     Repository.checkoutFile1(args[2]);
                 } else if (args.length == 4 && args[2].equals("--")) {
                     Repository.checkoutFile2(args[1], args[3]);
                 } else if (args.length == 2) {
                     Repository.checkoutBranch(args[1]);
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 break;
             case "log":
-                Repository.log();
+                Repository.log(Log.parse(Arrays.asList(args).subList(1, args.length)));
                 break;
             case "rm":
                 Repository.rm(args[1]);
@@ -73,7 +124,26 @@ public class Main {
                 Repository.globalLog();
                 break;
             case "find":
-                Repository.find(args[1]);
+                if (args.length == 3 && args[1].equals("--prefix")) {
+                    Repository.findPrefix(args[2]);
+                } else if (args.length >= 3 && args[1].equals("--word")) {
+                    Repository.findWords(Arrays.asList(args).subList(2, args.length));
+                } else if (args.length == 2) {
+                    Repository.find(args[1]);
+                } else {
+                    throw error("Incorrect operands.");
+                }
+                break;
+            case "diff":
+                if (args.length == 1) {
+                    Repository.diffWorking();
+                } else if (args.length == 2 && (args[1].equals("--cached") || args[1].equals("--staged"))) {
+                    Repository.diffStaged();
+                } else if (args.length == 3) {
+                    Repository.diffCommits(args[1], args[2]);
+                } else {
+                    throw error("Incorrect operands.");
+                }
                 break;
             case "reset":
                 Repository.reset(args[1]);
@@ -87,9 +157,73 @@ public class Main {
             case "merge":
                 Repository.merge(args[1]);
                 break;
+            case "repack":
+                Repository.repack();
+                break;
+            case "gc":
+                if (args.length > 2 || (args.length == 2 && !args[1].equals("--prune=now"))) {
+                    throw error("Incorrect operands.");
+                }
+                Repository.gc(args.length == 2);
+                break;
+            case "add-remote":
+                if (args.length != 3) {
+                    throw error("Incorrect operands.");
+                }
+                Repository.addRemote(args[1], args[2]);
+                break;
+            case "rm-remote":
+                if (args.length != 2) {
+                    throw error("Incorrect operands.");
+                }
+                Repository.rmRemote(args[1]);
+                break;
+            case "fetch":
+            case "push":
+            case "pull":
+                if (args.length != 3) {
+                    throw error("Incorrect operands.");
+                }
+                if (firstArg.equals("fetch")) {
+                    Repository.fetch(args[1], args[2]);
+                } else if (firstArg.equals("push")) {
+                    Repository.push(args[1], args[2]);
+                } else {
+                    Repository.pull(args[1], args[2]);
+                }
+                break;
+            case "clone":
+                if (args.length != 2) {
+                    throw error("Incorrect operands.");
+                }
+                if (Repository.GITLET_DIR.exists()) {
+                    throw error("A Gitlet version-control system already exists in the current directory.");
+                }
+                Repository.clone(args[1]);
+                break;
+            case "upload-pack":
+                Remote.uploadPack();
+                break;
+            case "receive-pack":
+                Remote.receivePack();
+                break;
+            case "batch":
+                if (args.length > 2) {
+                    throw error("Incorrect operands.");
+                }
+                Batch.run(args.length == 2 ? args[1] : null);
+                break;
+            case "daemon":
+                if (args.length == 2 && args[1].equals("stop")) {
+                    /* A running daemon would have taken this command. */
+                    throw error("No gitlet daemon is running.");
+                } else if (args.length != 1) {
+                    throw error("Incorrect operands.");
+                }
+                Daemon.serve();
+                break;
             default:
-                System.out.println("No command with that name exits.");
-                System.exit(0);
+                throw error("No command with that name exits.");
         }
     }
 }
@@ -0,0 +1,303 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/** An inverted index over commit messages, so that find never has to
+ *  deserialize a Commit.
+ *
+ *  .gitlet/messages/ holds
+ *      log             -- every indexed commit in the order it was added:
+ *                         raw id (20 bytes), message length (int), message
+ *                         (UTF-8)
+ *      exact/SHA1      -- the log offsets (longs) of the commits whose
+ *                         message has sha1 SHA1
+ *      words/C/WORD    -- the log offsets of the commits whose message
+ *                         contains the word WORD, whose first character is C
+ *  A word is a maximal run of letters and digits, lower cased and cut to
+ *  MAX_WORD characters.  Every file is only ever appended to, by add().
+ *
+ *  A query reads one posting file, that of its rarest key, and then only
+ *  the log records it points to, so its cost depends on the number of
+ *  candidates and not on the number of commits.  Candidates are checked
+ *  against their message in the log, which also covers the other keys and
+ *  makes sure a cut word never gives a wrong answer.
+ */
+class MessageIndex {
+
+    static final File INDEX_DIR = join(Repository.GITLET_DIR, "messages");
+    static final File LOG_FILE = join(INDEX_DIR, "log");
+    private static final File EXACT_DIR = join(INDEX_DIR, "exact");
+    private static final File WORDS_DIR = join(INDEX_DIR, "words");
+
+    static final int MAX_WORD = 64;
+    private static final int RAW_LENGTH = UID_LENGTH / 2;
+
+    /** A commit as recorded in the log. */
+    private static class Record {
+        final String id;
+        final String message;
+        /** Size of the record in the log. */
+        final int size;
+
+        Record(String id, String message, int size) {
+            this.id = id;
+            this.message = message;
+            this.size = size;
+        }
+    }
+
+    /** Index commit ID, whose message is MESSAGE.  It must already be in
+     *  the object store. */
+    static void add(String id, String message) {
+        if (!ensureBuilt()) {
+            append(id, message);
+        }
+    }
+
+    /** Ids of the commits whose message is MESSAGE, sorted. */
+    static List<String> exact(String message) {
+        ensureBuilt();
+        return matching(postings(exactFile(message)), r -> r.message.equals(message));
+    }
+
+    /** Ids of the commits whose message starts with PREFIX, sorted. */
+    static List<String> prefix(String prefix) {
+        ensureBuilt();
+        List<String> words = words(prefix);
+        if (words.isEmpty()) {
+            return matching(null, r -> r.message.startsWith(prefix));
+        }
+        /* Every word of PREFIX is a word of the message, except that the
+         * last one may be cut short by the end of PREFIX.  The candidates
+         * are those of the rarest whole word, or of every word starting
+         * with the cut one if there is no other. */
+        boolean partial = Character.isLetterOrDigit(prefix.codePointBefore(prefix.length()));
+        List<String> whole = partial ? words.subList(0, words.size() - 1) : words;
+        TreeSet<Long> candidates = whole.isEmpty()
+                ? startingWith(words.get(words.size() - 1)) : postings(rarest(whole));
+        return matching(candidates, r -> r.message.startsWith(prefix));
+    }
+
+    /** Ids of the commits whose message contains each of WORDS, in any
+     *  case and order, sorted. */
+    static List<String> containing(List<String> words) {
+        ensureBuilt();
+        TreeSet<String> wanted = new TreeSet<>();
+        for (String word : words) {
+            wanted.addAll(words(word));
+        }
+        if (wanted.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return matching(postings(rarest(wanted)), r -> words(r.message).containsAll(wanted));
+    }
+
+    /** The words of TEXT, in order. */
+    static List<String> words(String text) {
+        List<String> result = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i += 1) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                String word = text.substring(start, i).toLowerCase(Locale.ROOT);
+                result.add(word.length() > MAX_WORD ? word.substring(0, MAX_WORD) : word);
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    /** Drop the index, as when commits are deleted; the next query or
+     *  add() rebuilds it from the object store. */
+    static void clear() {
+        LOG_FILE.delete();
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** Index every commit in the object store if there is no index yet,
+     *  as in a repository made before it existed or after clear().  Posting
+     *  files left without their log are dropped first.  Returns true iff
+     *  it did.  The index is built holding the WriteLock, with the log
+     *  moved into place last, so a query running alongside waits for it
+     *  rather than reading half of it. */
+    private static boolean ensureBuilt() {
+        if (LOG_FILE.exists()) {
+            return false;
+        }
+        WriteLock.acquire();
+        try {
+            if (LOG_FILE.exists()) {
+                return false;
+            }
+            deleteTree(INDEX_DIR);
+            INDEX_DIR.mkdir();
+            EXACT_DIR.mkdir();
+            WORDS_DIR.mkdir();
+            File log = join(INDEX_DIR, "log.new");
+            writeContents(log, new byte[0]);
+            for (String id : ObjectStore.commitIds()) {
+                append(log, id, ObjectStore.readCommit(id).getMessage());
+            }
+            Files.move(log.toPath(), LOG_FILE.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            WriteLock.release();
+        }
+    }
+
+    /** Append commit ID to the log, then its offset to every posting file
+     *  of MESSAGE.  The log goes first, so a posting never points past it. */
+    private static void append(String id, String message) {
+        append(LOG_FILE, id, message);
+    }
+
+    /** Append commit ID to LOG, then its offset to every posting file of
+     *  MESSAGE. */
+    private static void append(File log, String id, String message) {
+        long offset = log.length();
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(RAW_LENGTH + 4 + text.length);
+        record.put(toRawId(id)).putInt(text.length).put(text);
+        appendTo(log, record.array());
+
+        byte[] posting = ByteBuffer.allocate(8).putLong(offset).array();
+        appendTo(exactFile(message), posting);
+        for (String word : new TreeSet<>(words(message))) {
+            File file = wordFile(word);
+            file.getParentFile().mkdir();
+            appendTo(file, posting);
+        }
+    }
+
+    private static void appendTo(File file, byte[] bytes) {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(bytes);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static File exactFile(String message) {
+        return join(EXACT_DIR, sha1(message));
+    }
+
+    private static File wordFile(String word) {
+        return join(WORDS_DIR, word.substring(0, word.offsetByCodePoints(0, 1)), word);
+    }
+
+    /** Offsets in the posting files of every word starting with PREFIX. */
+    private static TreeSet<Long> startingWith(String prefix) {
+        TreeSet<Long> result = new TreeSet<>();
+        File bucket = wordFile(prefix).getParentFile();
+        List<String> words = plainFilenamesIn(bucket);
+        if (words != null) {
+            for (String word : words) {
+                if (word.startsWith(prefix)) {
+                    result.addAll(postings(join(bucket, word)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** The offsets listed in posting file FILE, empty if there is none. */
+    private static TreeSet<Long> postings(File file) {
+        TreeSet<Long> result = new TreeSet<>();
+        if (file.isFile()) {
+            ByteBuffer in = ByteBuffer.wrap(readContents(file));
+            while (in.remaining() >= 8) {
+                result.add(in.getLong());
+            }
+        }
+        return result;
+    }
+
+    /** The posting file of the word of WORDS with the fewest commits.  Its
+     *  commits are the only candidates; the other words are checked against
+     *  the candidates' messages, which is cheaper than reading postings that
+     *  may be long. */
+    private static File rarest(Iterable<String> words) {
+        File result = null;
+        for (String word : words) {
+            File file = wordFile(word);
+            if (result == null || file.length() < result.length()) {
+                result = file;
+            }
+        }
+        return result;
+    }
+
+    /** Ids of the log records at OFFSETS (every record if null) that pass
+     *  TEST, sorted. */
+    private static List<String> matching(TreeSet<Long> offsets, Predicate<Record> test) {
+        TreeSet<String> result = new TreeSet<>();
+        try (FileChannel log = FileChannel.open(LOG_FILE.toPath(), StandardOpenOption.READ)) {
+            if (offsets == null) {
+                for (long offset = 0; offset < log.size(); ) {
+                    Record record = readAt(log, offset);
+                    if (test.test(record)) {
+                        result.add(record.id);
+                    }
+                    offset += record.size;
+                }
+            } else {
+                for (long offset : offsets) {
+                    Record record = readAt(log, offset);
+                    if (test.test(record)) {
+                        result.add(record.id);
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new ArrayList<>(result);
+    }
+
+    private static Record readAt(FileChannel log, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RAW_LENGTH + 4);
+        readFully(log, header, offset);
+        int length = header.getInt(RAW_LENGTH);
+        ByteBuffer text = ByteBuffer.allocate(length);
+        readFully(log, text, offset + RAW_LENGTH + 4);
+        return new Record(toHexId(header.array(), 0),
+                new String(text.array(), StandardCharsets.UTF_8), RAW_LENGTH + 4 + length);
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw error("Corrupt message index.");
+            }
+        }
+    }
+}
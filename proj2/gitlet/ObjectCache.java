@@ -0,0 +1,91 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded cache of decoded objects, so that one gitlet command reads and
+ *  decodes an object at most once however often it asks for it.
+ *
+ *  Each value is charged the size of the bytes it was decoded from, and
+ *  once the total exceeds the capacity the least recently used values are
+ *  dropped.  Objects are immutable and content addressed, so a cached value
+ *  never goes stale.  Hits and misses are counted; run gitlet with
+ *  -Dgitlet.stats=true to have them printed when it exits.
+ */
+class ObjectCache {
+
+    /** A cached value and what it is charged. */
+    private static class Entry {
+        final Object value;
+        final long weight;
+
+        Entry(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final long capacity;
+    /** Entries in access order, least recently used first. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /** A cache holding at most CAPACITY bytes worth of values. */
+    ObjectCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /** The value cached under KEY, or null; counts a hit or a miss. */
+    synchronized Object get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return entry.value;
+    }
+
+    /** Cache VALUE under KEY, charging it WEIGHT bytes.  A value larger than
+     *  the whole cache is not kept. */
+    synchronized void put(String key, Object value, long weight) {
+        if (weight > capacity) {
+            return;
+        }
+        Entry old = entries.put(key, new Entry(value, weight));
+        if (old != null) {
+            size -= old.weight;
+        }
+        size += weight;
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (size > capacity) {
+            size -= eldest.next().getValue().weight;
+            eldest.remove();
+            evictions += 1;
+        }
+    }
+
+    /** Drop everything, as when objects were deleted. */
+    synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("object cache: %d hits, %d misses, %d evictions, %d objects, %d of %d bytes",
+                hits, misses, evictions, entries.size(), size, capacity);
+    }
+}
@@ -0,0 +1,61 @@
+package gitlet;
+
+import java.io.File;
+
+import static gitlet.Utils.*;
+
+/** The hash object ids are made with, fixed when a repository is made.
+ *
+ *  Ids are 160 bits everywhere: 40 hex digits in names, 20 raw bytes in
+ *  packs, trees, refs and the commit graph.  A repository made with
+ *  -Dgitlet.objectFormat=sha256 uses the first 160 bits of SHA-256 rather
+ *  than SHA-1, so none of those formats change.  .gitlet/object-format
+ *  records that choice; a repository without it uses SHA-1.
+ */
+class ObjectFormat {
+
+    static final File FORMAT_FILE = join(Repository.GITLET_DIR, "object-format");
+
+    static final String SHA1 = "sha1";
+    static final String SHA256 = "sha256";
+
+    /** The JCA name of the digest of this repository, once known. */
+    private static volatile String algorithm;
+
+    /** The format asked for with -Dgitlet.objectFormat, SHA1 by default. */
+    static String requested() {
+        String format = System.getProperty("gitlet.objectFormat", SHA1);
+        if (!format.equals(SHA1) && !format.equals(SHA256)) {
+            throw error("Unknown object format %s.", format);
+        }
+        return format;
+    }
+
+    /** The format of the repository whose .gitlet directory is DIR. */
+    static String of(File dir) {
+        File file = join(dir, FORMAT_FILE.getName());
+        return file.isFile() && readContentsAsString(file).trim().equals(SHA256) ? SHA256 : SHA1;
+    }
+
+    /** Record FORMAT in a new repository.  Must run before the first
+     *  object is hashed. */
+    static void init(String format) {
+        if (format.equals(SHA256)) {
+            writeContents(FORMAT_FILE, format);
+        }
+        algorithm = null;
+    }
+
+    /** The JCA name of the digest objects of this repository are named
+     *  with. */
+    static String algorithm() {
+        String result = algorithm;
+        if (result == null) {
+            boolean sha256 = FORMAT_FILE.isFile()
+                    && readContentsAsString(FORMAT_FILE).trim().equals(SHA256);
+            result = sha256 ? "SHA-256" : "SHA-1";
+            algorithm = result;
+        }
+        return result;
+    }
+}
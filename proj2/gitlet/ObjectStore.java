@@ -0,0 +1,442 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import static gitlet.Utils.*;
+
+/** The object database of a gitlet repository.
+ *
+ *  New objects are written "loose", one file per object, into the
+ *  directory for their type (commits/, trees/, blobs/, chunks/).  repack() folds every loose
+ *  object into large pack segments under packs/ (see PackFile), after which
+ *  reads are served from memory-mapped packs without opening a file per object.
+ *  Reads always try the loose directory first and then every pack, and
+ *  decoded commits, trees and blobs are kept in an ObjectCache.
+ */
+class ObjectStore {
+
+    static final byte COMMIT = 1;
+    static final byte BLOB = 2;
+    static final byte CHUNK = 3;
+    static final byte TREE = 4;
+
+    /** All object types, in the order their loose directories are scanned. */
+    private static final byte[] TYPES = {COMMIT, BLOB, CHUNK, TREE};
+
+    /** A pack segment is closed once its payloads exceed this many bytes. */
+    static final long SEGMENT_LIMIT = 256L << 20;
+
+    static final File PACKS_DIR = join(Repository.GITLET_DIR, "packs");
+
+    /** Fewer new objects than this are received loose, see writeAll. */
+    static final int UNPACK_LIMIT = 100;
+
+    /** Decoded commits, trees and blobs read by this process.  Its size in
+     *  bytes can be set with -Dgitlet.cacheBytes. */
+    private static final ObjectCache CACHE =
+        new ObjectCache(Long.getLong("gitlet.cacheBytes", 64L << 20));
+
+    /** Packs mapped by this process, loaded on first use.  add() reads
+     *  the store from several threads, so it is loaded under a lock. */
+    private static List<PackFile> packs;
+    /** Modification time of PACKS_DIR when PACKS was loaded. */
+    private static long packsStamp;
+
+    static Commit readCommit(String id) {
+        return readCached(COMMIT, id, Commit.class, Commit::decode);
+    }
+
+    static Blob readBlob(String id) {
+        return readCached(BLOB, id, Blob.class, Blob::decode);
+    }
+
+    static Tree readTree(String id) {
+        return readCached(TREE, id, Tree.class, Tree::decode);
+    }
+
+    static void writeTree(String id, byte[] bytes) {
+        writeBytes(TREE, id, bytes);
+    }
+
+    static void writeCommit(String id, Commit commit) {
+        writeBytes(COMMIT, id, commit.encode());
+    }
+
+    static void writeBlob(String id, Blob blob) {
+        write(BLOB, id, blob);
+    }
+
+    static boolean hasCommit(String id) {
+        return contains(COMMIT, id);
+    }
+
+    static boolean hasBlob(String id) {
+        return contains(BLOB, id);
+    }
+
+    /** Ids of all commits, loose and packed, in lexicographic order. */
+    static List<String> commitIds() {
+        return ids(COMMIT);
+    }
+
+    /** Return the object of type TYPE named ID, of class EXPECTEDCLASS,
+     *  from the cache or else by applying DECODE to its bytes and caching
+     *  the result.  Throws IllegalArgumentException if there is no such
+     *  object.  Callers must not modify the object returned. */
+    private static <T> T readCached(byte type, String id, Class<T> expectedClass,
+                                    Function<byte[], T> decode) {
+        String key = type + id;
+        Object cached = CACHE.get(key);
+        if (cached != null) {
+            return expectedClass.cast(cached);
+        }
+        byte[] bytes = readBytes(type, id);
+        if (bytes == null) {
+            throw new IllegalArgumentException("No such object " + id);
+        }
+        T value = decode.apply(bytes);
+        CACHE.put(key, value, bytes.length);
+        return value;
+    }
+
+    /** Hit and miss counts of the object cache, for -Dgitlet.stats. */
+    static String cacheStats() {
+        return CACHE.toString();
+    }
+
+    /** Return the serialized bytes of object ID of type TYPE, or null. */
+    static byte[] readBytes(byte type, String id) {
+        File loose = join(looseDir(type), id);
+        if (loose.isFile()) {
+            return readContents(loose);
+        }
+        if (id.length() != UID_LENGTH) {
+            return null;
+        }
+        byte[] rawId = toRawId(id);
+        for (PackFile pack : packs()) {
+            int pos = pack.find(rawId);
+            if (pos >= 0 && pack.typeAt(pos) == type) {
+                return pack.bytesAt(pos);
+            }
+        }
+        return packsChanged() ? readBytes(type, id) : null;
+    }
+
+    /** Return the loose file holding object ID of type TYPE, or null if
+     *  that object is not loose. */
+    static File looseFile(byte type, String id) {
+        File loose = join(looseDir(type), id);
+        return loose.isFile() ? loose : null;
+    }
+
+    /** Return the bytes of packed object ID of type TYPE as a view of the
+     *  mapped pack, or null if it is not in any pack. */
+    static ByteBuffer readBuffer(byte type, String id) {
+        if (id.length() != UID_LENGTH) {
+            return null;
+        }
+        byte[] rawId = toRawId(id);
+        for (PackFile pack : packs()) {
+            int pos = pack.find(rawId);
+            if (pos >= 0 && pack.typeAt(pos) == type) {
+                return pack.payloadAt(pos);
+            }
+        }
+        return packsChanged() ? readBuffer(type, id) : null;
+    }
+
+    /** True iff an object of type TYPE named ID exists. */
+    static boolean contains(byte type, String id) {
+        if (join(looseDir(type), id).isFile()) {
+            return true;
+        }
+        if (id.length() != UID_LENGTH) {
+            return false;
+        }
+        byte[] rawId = toRawId(id);
+        for (PackFile pack : packs()) {
+            int pos = pack.find(rawId);
+            if (pos >= 0 && pack.typeAt(pos) == type) {
+                return true;
+            }
+        }
+        return packsChanged() && contains(type, id);
+    }
+
+    /** Write OBJ as the loose object ID of type TYPE, unless it already
+     *  exists.  Objects are content addressed, so an existing copy is
+     *  always the same object. */
+    static void write(byte type, String id, Serializable obj) {
+        if (contains(type, id)) {
+            return;
+        }
+        File dir = looseDir(type);
+        if (!dir.exists()) {
+            dir.mkdir();
+        }
+        Journal.writeObject(join(dir, id), serialize(obj));
+    }
+
+    /** Write BYTES as the loose object ID of type TYPE, unless it already
+     *  exists.  Used for objects, like chunks, that are stored as they are
+     *  rather than serialized. */
+    static void writeBytes(byte type, String id, byte[] bytes) {
+        if (contains(type, id)) {
+            return;
+        }
+        File dir = looseDir(type);
+        if (!dir.exists()) {
+            dir.mkdir();
+        }
+        Journal.writeObject(join(dir, id), bytes);
+    }
+
+    /** Store the objects IDS of types TYPES, the I-th held in the bytes
+     *  PAYLOADS.apply(I), as received from another repository, skipping
+     *  those already here: loose if fewer than UNPACK_LIMIT are new, so
+     *  small fetches do not pile up packs, and as one new pack otherwise. */
+    static void writeAll(List<String> ids, byte[] types, IntFunction<byte[]> payloads) {
+        TreeMap<String, Integer> fresh = new TreeMap<>();
+        for (int i = 0; i < ids.size(); i += 1) {
+            if (!contains(types[i], ids.get(i))) {
+                fresh.put(ids.get(i), i);
+            }
+        }
+        if (fresh.size() < UNPACK_LIMIT) {
+            for (int i : fresh.values()) {
+                writeBytes(types[i], ids.get(i), payloads.apply(i));
+            }
+            return;
+        }
+        if (!PACKS_DIR.exists()) {
+            PACKS_DIR.mkdir();
+        }
+        List<String> sorted = new ArrayList<>(fresh.keySet());
+        List<Integer> order = new ArrayList<>(fresh.values());
+        byte[] sortedTypes = new byte[order.size()];
+        for (int i = 0; i < sortedTypes.length; i += 1) {
+            sortedTypes[i] = types[order.get(i)];
+        }
+        PackFile.write(PACKS_DIR, sorted, sortedTypes, i -> payloads.apply(order.get(i)));
+        synchronized (ObjectStore.class) {
+            packs = null;
+        }
+    }
+
+    /** Ids of all objects of type TYPE, in lexicographic order. */
+    static List<String> ids(byte type) {
+        TreeMap<String, Boolean> result = new TreeMap<>();
+        List<String> loose = plainFilenamesIn(looseDir(type));
+        if (loose != null) {
+            for (String id : loose) {
+                result.put(id, true);
+            }
+        }
+        for (PackFile pack : packs()) {
+            for (String id : pack.ids(type)) {
+                result.put(id, true);
+            }
+        }
+        return new ArrayList<>(result.keySet());
+    }
+
+    /** Fold all loose objects and all existing packs into as few pack
+     *  segments as SEGMENT_LIMIT allows, then delete the loose files and the
+     *  old packs.  Returns the number of objects in the new packs. */
+    static int repack() {
+        TreeMap<String, Byte> types = new TreeMap<>();
+        TreeMap<String, Supplier<byte[]>> sources = new TreeMap<>();
+        TreeMap<String, Long> sizes = new TreeMap<>();
+        List<File> looseFiles = new ArrayList<>();
+
+        for (PackFile pack : packs()) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                final int pos = i;
+                String id = pack.idAt(pos);
+                types.put(id, pack.typeAt(pos));
+                sources.put(id, () -> pack.bytesAt(pos));
+                sizes.put(id, (long) pack.payloadAt(pos).remaining());
+            }
+        }
+        for (byte type : TYPES) {
+            List<String> loose = plainFilenamesIn(looseDir(type));
+            if (loose == null) {
+                continue;
+            }
+            for (String id : loose) {
+                File file = join(looseDir(type), id);
+                looseFiles.add(file);
+                types.put(id, type);
+                sources.put(id, () -> readContents(file));
+                sizes.put(id, file.length());
+            }
+        }
+        if (looseFiles.isEmpty() && packs().size() <= 1) {
+            return types.size();
+        }
+
+        if (!PACKS_DIR.exists()) {
+            PACKS_DIR.mkdir();
+        }
+        List<File> written = new ArrayList<>();
+        List<String> segment = new ArrayList<>();
+        long segmentSize = 0;
+        for (String id : types.keySet()) {
+            segment.add(id);
+            segmentSize += sizes.get(id);
+            if (segmentSize >= SEGMENT_LIMIT) {
+                written.add(writeSegment(segment, types, sources));
+                segment = new ArrayList<>();
+                segmentSize = 0;
+            }
+        }
+        if (!segment.isEmpty()) {
+            written.add(writeSegment(segment, types, sources));
+        }
+
+        for (PackFile pack : packs()) {
+            if (!written.contains(pack.getPackFile())) {
+                pack.getIdxFile().delete();
+                pack.getPackFile().delete();
+            }
+        }
+        for (File file : looseFiles) {
+            file.delete();
+        }
+        packs = null;
+        return types.size();
+    }
+
+    /** Delete every object of type TYPE for which LIVE is false, except
+     *  loose objects written at or after SINCE (millis), which a concurrent
+     *  command may have just added.  Loose files are deleted in parallel;
+     *  a pack holding dead objects is rewritten with only the live ones
+     *  before it is deleted.  Returns {objects deleted, bytes reclaimed}. */
+    static long[] prune(BiPredicate<Byte, String> live, long since) {
+        AtomicLong objects = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        for (byte type : TYPES) {
+            List<String> loose = plainFilenamesIn(looseDir(type));
+            if (loose == null) {
+                continue;
+            }
+            loose.parallelStream().filter(id -> !live.test(type, id)).forEach(id -> {
+                File file = join(looseDir(type), id);
+                long length = file.length();
+                if (file.lastModified() < since && file.delete()) {
+                    objects.incrementAndGet();
+                    bytes.addAndGet(length);
+                }
+            });
+        }
+
+        for (PackFile pack : packs()) {
+            List<String> kept = new ArrayList<>();
+            List<Integer> positions = new ArrayList<>();
+            for (int i = 0; i < pack.size(); i += 1) {
+                if (live.test(pack.typeAt(i), pack.idAt(i))) {
+                    kept.add(pack.idAt(i));
+                    positions.add(i);
+                }
+            }
+            if (kept.size() == pack.size()) {
+                continue;
+            }
+            long before = pack.getPackFile().length() + pack.getIdxFile().length();
+            long after = 0;
+            if (!kept.isEmpty()) {
+                byte[] keptTypes = new byte[kept.size()];
+                for (int i = 0; i < keptTypes.length; i += 1) {
+                    keptTypes[i] = pack.typeAt(positions.get(i));
+                }
+                File written = PackFile.write(PACKS_DIR, kept, keptTypes,
+                        i -> pack.bytesAt(positions.get(i)));
+                after = written.length() + PackFile.idxFor(written).length();
+            }
+            pack.getIdxFile().delete();
+            pack.getPackFile().delete();
+            objects.addAndGet(pack.size() - kept.size());
+            bytes.addAndGet(before - after);
+        }
+        packs = null;
+        CACHE.clear();
+        return new long[] {objects.get(), bytes.get()};
+    }
+
+    private static File writeSegment(List<String> ids, TreeMap<String, Byte> types,
+                                     TreeMap<String, Supplier<byte[]>> sources) {
+        byte[] segmentTypes = new byte[ids.size()];
+        for (int i = 0; i < ids.size(); i += 1) {
+            segmentTypes[i] = types.get(ids.get(i));
+        }
+        return PackFile.write(PACKS_DIR, ids, segmentTypes, i -> sources.get(ids.get(i)).get());
+    }
+
+    /** Forget the packs if packs/ changed since they were loaded. */
+    static void reload() {
+        packsChanged();
+    }
+
+    /** Forget the packs if packs/ changed since they were loaded, and
+     *  return true iff so.  An object not found is looked up again then:
+     *  another process may have packed it and deleted its loose copy. */
+    private static synchronized boolean packsChanged() {
+        if (packs != null && PACKS_DIR.lastModified() != packsStamp) {
+            packs = null;
+            return true;
+        }
+        return false;
+    }
+
+    private static synchronized List<PackFile> packs() {
+        if (packs == null) {
+            packsStamp = PACKS_DIR.lastModified();
+            packs = new ArrayList<>();
+            String[] names = PACKS_DIR.list();
+            if (names != null) {
+                for (String name : names) {
+                    File packFile = join(PACKS_DIR, name);
+                    if (name.endsWith(".pack")
+                            && join(PACKS_DIR, name.replace(".pack", ".idx")).isFile()) {
+                        try {
+                            packs.add(new PackFile(packFile));
+                        } catch (IllegalArgumentException excp) {
+                            /* Deleted by a repack in another process
+                             * since the directory was listed. */
+                            if (packFile.exists() && PackFile.idxFor(packFile).exists()) {
+                                throw excp;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    private static File looseDir(byte type) {
+        switch (type) {
+            case COMMIT:
+                return Repository.COMMITS_DIR;
+            case BLOB:
+                return Repository.BLOBS_DIR;
+            case CHUNK:
+                return Repository.CHUNKS_DIR;
+            case TREE:
+                return Repository.TREES_DIR;
+            default:
+                throw error("Unknown object type %d.", type);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/** A read-only segment of packed objects together with its sorted index.
+ *
+ *  A pack is a pair of files in .gitlet/packs/ sharing the same base name:
+ *      pack-SHA1.pack -- "GPAK", version, count, then count entries of
+ *                        (type byte, payload length int, payload bytes)
+ *      pack-SHA1.idx  -- "GIDX", version, count, a 256 entry fanout table,
+ *                        then the count raw ids in sorted order, one type
+ *                        byte per id and one pack offset (long) per id
+ *  The fanout entry for byte b is the number of ids whose first byte is <= b,
+ *  so a lookup is a binary search over one fanout bucket.
+ *  Both files are memory-mapped; no object is ever read by opening a file.
+ */
+class PackFile {
+
+    static final int PACK_MAGIC = 0x4750414b; // "GPAK"
+    static final int IDX_MAGIC = 0x47494458;  // "GIDX"
+    static final int VERSION = 1;
+
+    /** Size in bytes of a raw id. */
+    private static final int RAW_LENGTH = Utils.UID_LENGTH / 2;
+    /** Size in bytes of the idx header (magic, version, count, fanout). */
+    private static final int IDX_HEADER = 12 + 256 * 4;
+    /** Size in bytes of the pack header (magic, version, count). */
+    private static final int PACK_HEADER = 12;
+
+    private final File packFile;
+    private final File idxFile;
+    private final MappedByteBuffer pack;
+    private final MappedByteBuffer idx;
+    private final int count;
+
+    /** Map the pack whose .pack file is PACKFILE. */
+    PackFile(File packFile) {
+        this.packFile = packFile;
+        this.idxFile = idxFor(packFile);
+        this.pack = map(packFile);
+        this.idx = map(idxFile);
+        if (idx.getInt(0) != IDX_MAGIC || pack.getInt(0) != PACK_MAGIC) {
+            throw Utils.error("Corrupt pack %s.", packFile.getName());
+        }
+        this.count = idx.getInt(8);
+    }
+
+    /** Number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    File getPackFile() {
+        return packFile;
+    }
+
+    File getIdxFile() {
+        return idxFile;
+    }
+
+    /** Return the position of RAWID in the index, or -1. */
+    int find(byte[] rawId) {
+        int first = rawId[0] & 0xff;
+        int lo = first == 0 ? 0 : idx.getInt(12 + (first - 1) * 4);
+        int hi = idx.getInt(12 + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, rawId);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Hexadecimal id of the object at index position POS. */
+    String idAt(int pos) {
+        byte[] raw = new byte[RAW_LENGTH];
+        idx.get(IDX_HEADER + pos * RAW_LENGTH, raw);
+        return Utils.toHexId(raw, 0);
+    }
+
+    /** Type of the object at index position POS. */
+    byte typeAt(int pos) {
+        return idx.get(IDX_HEADER + count * RAW_LENGTH + pos);
+    }
+
+    /** The payload of the object at index position POS.  The returned
+     *  buffer is a view of the mapped pack, not a copy. */
+    ByteBuffer payloadAt(int pos) {
+        long offset = idx.getLong(IDX_HEADER + count * (RAW_LENGTH + 1) + pos * 8);
+        int length = pack.getInt((int) offset + 1);
+        return pack.slice((int) offset + 5, length);
+    }
+
+    /** The payload of the object at index position POS as a byte array. */
+    byte[] bytesAt(int pos) {
+        ByteBuffer payload = payloadAt(pos);
+        byte[] result = new byte[payload.remaining()];
+        payload.get(result);
+        return result;
+    }
+
+    /** Ids of all objects of type TYPE in this pack, in sorted order. */
+    List<String> ids(byte type) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            if (typeAt(i) == type) {
+                result.add(idAt(i));
+            }
+        }
+        return result;
+    }
+
+    private int compareId(int pos, byte[] rawId) {
+        int base = IDX_HEADER + pos * RAW_LENGTH;
+        for (int i = 0; i < RAW_LENGTH; i += 1) {
+            int cmp = Integer.compare(idx.get(base + i) & 0xff, rawId[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Write the objects IDS (sorted, hexadecimal), whose types are TYPES
+     *  and whose i-th payload is PAYLOADS.apply(i), as a new pack in
+     *  directory DIR.  Payloads are fetched one at a time, so a pack may be
+     *  larger than the heap.  The .idx is written last, so a pack without
+     *  an index is ignored. */
+    static File write(File dir, List<String> ids, byte[] types, IntFunction<byte[]> payloads) {
+        int n = ids.size();
+        File packFile = Utils.join(dir, "pack-" + Utils.sha1(ids.toArray()) + ".pack");
+        if (packFile.isFile() && idxFor(packFile).isFile()) {
+            return packFile;
+        }
+        ByteBuffer idxBuf = ByteBuffer.allocate(IDX_HEADER + n * (RAW_LENGTH + 1 + 8));
+        idxBuf.putInt(IDX_MAGIC).putInt(VERSION).putInt(n);
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        for (int b = 0, total = 0; b < 256; b += 1) {
+            total += fanout[b];
+            idxBuf.putInt(total);
+        }
+        for (String id : ids) {
+            idxBuf.put(Utils.toRawId(id));
+        }
+        idxBuf.put(types);
+
+        try (FileChannel out = FileChannel.open(packFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(PACK_HEADER);
+            header.putInt(PACK_MAGIC).putInt(VERSION).putInt(n).flip();
+            out.write(header);
+            long offset = PACK_HEADER;
+            for (int i = 0; i < n; i += 1) {
+                byte[] payload = payloads.apply(i);
+                ByteBuffer entry = ByteBuffer.allocate(5 + payload.length);
+                entry.put(types[i]).putInt(payload.length).put(payload).flip();
+                out.write(entry);
+                idxBuf.putLong(offset);
+                offset += 5 + payload.length;
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.writeAtomic(idxFor(packFile), idxBuf.array(), true);
+        return packFile;
+    }
+
+    static File idxFor(File packFile) {
+        String name = packFile.getName();
+        return new File(packFile.getParentFile(), name.substring(0, name.length() - 5) + ".idx");
+    }
+
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
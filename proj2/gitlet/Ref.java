@@ -1,9 +1,15 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * Serialized Ref's name is the branch name,like "Master".
+ * It is stored as tag 'R', version, flags, then the raw ids of last and
+ * current when they are set.  Refs written with Java serialization by
+ * older versions are still read.
  */
 public class Ref implements Serializable {
 
@@ -16,6 +22,60 @@ public class Ref implements Serializable {
     * */
     private String current;
 
+    /* Keeps refs written with Java serialization readable, see Commit */
+    private static final long serialVersionUID = 9081947204654760842L;
+
+    static final byte TAG = 'R';
+    static final byte VERSION = 1;
+
+    private static final int HAS_LAST = 1;
+    private static final int HAS_CURRENT = 2;
+
+    /** Read the ref stored in FILE. */
+    static Ref read(File file) {
+        byte[] bytes = Utils.readContents(file);
+        if (Codec.isLegacy(bytes)) {
+            return Utils.deserialize(bytes, Ref.class);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        Codec.readHeader(in, TAG, VERSION, "ref");
+        int flags = in.get();
+        Ref ref = new Ref();
+        if ((flags & HAS_LAST) != 0) {
+            ref.last = Codec.readId(in);
+        }
+        if ((flags & HAS_CURRENT) != 0) {
+            ref.current = Codec.readId(in);
+        }
+        return ref;
+    }
+
+    /** Store this ref in FILE, through a transaction of its own. */
+    void write(File file) {
+        Journal tx = new Journal();
+        write(tx, file);
+        tx.commit();
+    }
+
+    /** Have TX store this ref in FILE when it commits. */
+    void write(Journal tx, File file) {
+        tx.write(file, encode());
+    }
+
+    private byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(TAG);
+        out.write(VERSION);
+        out.write((last != null ? HAS_LAST : 0) | (current != null ? HAS_CURRENT : 0));
+        if (last != null) {
+            Codec.writeId(out, last);
+        }
+        if (current != null) {
+            Codec.writeId(out, current);
+        }
+        return out.toByteArray();
+    }
+
     public String getLast() {
         return last;
     }
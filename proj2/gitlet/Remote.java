@@ -0,0 +1,422 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** Other gitlet repositories on this machine, which branches are fetched
+ *  from and pushed to.
+ *
+ *  "add-remote NAME DIR/.gitlet" records the path in .gitlet/remotes/NAME.
+ *  A repository never reads another's files itself: as in git, it starts
+ *  a second gitlet process in the remote's directory, "upload-pack" to
+ *  fetch and "receive-pack" to push, and talks to it over its standard
+ *  input and output.  Each process works on its own repository under its
+ *  own WriteLock, so a fetch holds the local lock and reads the remote
+ *  without one, and a push the other way around.
+ *
+ *  Protocol (ids are raw, 20 bytes; strings as by writeUTF):
+ *      remote  -- magic ("GRMT"), object format, branch count (int), then
+ *                 each branch name and the id of its head
+ *  upload-pack:
+ *      local   -- want count (int) and the wanted ids; 0 ends it
+ *      rounds  -- have count (int) and that many ids of commits this
+ *                 repository has, newest first; the remote answers with
+ *                 the count and ids of those it has too.  A have count
+ *                 of 0 ends negotiation.
+ *      remote  -- a pack stream of what the wants need, see Transfer
+ *  receive-pack:
+ *      local   -- branch name ("" to stop), its old head ("" if new), its
+ *                 new head, then a pack stream
+ *      remote  -- "" once the branch is moved, or why it was not
+ *  Haves start at every branch head and walk back by corrected date; a
+ *  commit the remote has is common, and so are all its ancestors, which
+ *  are no longer sent.  Fetching on top of an earlier fetch ends in one
+ *  round, so both the negotiation and the stream grow with what is new
+ *  rather than with the history.
+ */
+class Remote {
+
+    static final File REMOTES_DIR = join(Repository.GITLET_DIR, "remotes");
+
+    static final int MAGIC = 0x47524d54; // "GRMT"
+
+    /** Haves sent in the first round; each round sends twice as many, up
+     *  to MAX_HAVES. */
+    static final int FIRST_HAVES = 32;
+    static final int MAX_HAVES = 1024;
+
+    private static final int RAW_LENGTH = UID_LENGTH / 2;
+
+    /** Record the repository whose .gitlet directory is PATH as NAME. */
+    static void add(String name, String path) {
+        File file = join(REMOTES_DIR, name);
+        if (file.exists()) {
+            throw error("A remote with that name already exists.");
+        }
+        REMOTES_DIR.mkdir();
+        writeContents(file, path.replace('/', File.separatorChar));
+    }
+
+    /** Forget remote NAME.  Branches fetched from it stay. */
+    static void remove(String name) {
+        File file = join(REMOTES_DIR, name);
+        if (!file.isFile()) {
+            throw error("A remote with that name does not exist.");
+        }
+        file.delete();
+    }
+
+    /** The .gitlet directory of remote NAME. */
+    static File gitletDir(String name) {
+        File file = join(REMOTES_DIR, name);
+        if (!file.isFile()) {
+            throw error("A remote with that name does not exist.");
+        }
+        File dir = new File(readContentsAsString(file));
+        if (!dir.isAbsolute()) {
+            dir = new File(Repository.CWD, dir.getPath());
+        }
+        if (!dir.isDirectory()) {
+            throw error("Remote directory not found.");
+        }
+        return dir;
+    }
+
+    /** Copy branch BRANCH of remote NAME, with what it needs that this
+     *  repository lacks, into the branch NAME/BRANCH.  Returns its head. */
+    static String fetch(String name, String branch) {
+        File dir = gitletDir(name);
+        String head;
+        try (Connection remote = new Connection(dir, "upload-pack")) {
+            head = remote.refs.get(branch);
+            if (head == null || ObjectStore.hasCommit(head)) {
+                remote.out.writeInt(0);
+                remote.out.flush();
+            } else {
+                remote.out.writeInt(1);
+                writeId(remote.out, head);
+                negotiate(remote);
+                Transfer.receive(remote.in);
+            }
+        } catch (IOException excp) {
+            throw error("The remote end hung up unexpectedly.");
+        }
+        if (head == null) {
+            throw error("That remote does not have that branch.");
+        }
+        File ref = join(Repository.REF_DIR, name, branch);
+        ref.getParentFile().mkdirs();
+        Ref fetched = new Ref();
+        fetched.setLast(head);
+        fetched.write(ref);
+        return head;
+    }
+
+    /** Tell REMOTE which commits this repository has until it has
+     *  acknowledged enough to know what to leave out. */
+    private static void negotiate(Connection remote) throws IOException {
+        PriorityQueue<Integer> queue = newestFirst();
+        BitSet seen = new BitSet();
+        BitSet popped = new BitSet();
+        BitSet common = new BitSet();
+        int uncommon = 0;
+        for (String id : Repository.heads().values()) {
+            int pos = CommitGraph.find(id);
+            if (pos >= 0 && !seen.get(pos)) {
+                seen.set(pos);
+                queue.add(pos);
+                uncommon += 1;
+            }
+        }
+        int batch = FIRST_HAVES;
+        while (uncommon > 0) {
+            List<Integer> haves = new ArrayList<>();
+            while (uncommon > 0 && haves.size() < batch) {
+                int pos = queue.poll();
+                popped.set(pos);
+                boolean painted = common.get(pos);
+                if (!painted) {
+                    uncommon -= 1;
+                    haves.add(pos);
+                }
+                for (int parent : parents(pos)) {
+                    if (!seen.get(parent)) {
+                        seen.set(parent);
+                        queue.add(parent);
+                        if (painted) {
+                            common.set(parent);
+                        } else {
+                            uncommon += 1;
+                        }
+                    } else if (painted && !common.get(parent) && !popped.get(parent)) {
+                        common.set(parent);
+                        uncommon -= 1;
+                    }
+                }
+            }
+            if (haves.isEmpty()) {
+                break;
+            }
+            remote.out.writeInt(haves.size());
+            for (int pos : haves) {
+                writeId(remote.out, CommitGraph.idAt(pos));
+            }
+            remote.out.flush();
+            for (int acks = remote.in.readInt(); acks > 0; acks -= 1) {
+                int pos = CommitGraph.find(readId(remote.in));
+                /* Its parents, queued when it was sent, are common too;
+                 * so are theirs, painted as they are popped. */
+                for (int parent : parents(pos)) {
+                    if (!common.get(parent) && !popped.get(parent)) {
+                        common.set(parent);
+                        uncommon -= 1;
+                    }
+                }
+            }
+            batch = Math.min(batch * 2, MAX_HAVES);
+        }
+        remote.out.writeInt(0);
+        remote.out.flush();
+    }
+
+    /** Make HEAD, the head of the current branch, the head of branch
+     *  BRANCH of remote NAME, sending what the remote lacks.  The remote
+     *  branch must be an ancestor of HEAD, or new. */
+    static void push(String name, String branch, String head) {
+        File dir = gitletDir(name);
+        try (Connection remote = new Connection(dir, "receive-pack")) {
+            String old = remote.refs.get(branch);
+            if (head.equals(old)) {
+                remote.out.writeUTF("");
+                return;
+            }
+            if (old != null && !(ObjectStore.hasCommit(old) && CommitGraph.isAncestor(old, head))) {
+                remote.out.writeUTF("");
+                throw error("Please pull down remote changes before pushing.");
+            }
+            List<String> commons = new ArrayList<>();
+            for (String id : remote.refs.values()) {
+                if (ObjectStore.hasCommit(id)) {
+                    commons.add(id);
+                }
+            }
+            remote.out.writeUTF(branch);
+            remote.out.writeUTF(old == null ? "" : old);
+            remote.out.writeUTF(head);
+            Transfer.send(Transfer.missingCommits(List.of(head), commons), remote.out);
+            remote.out.flush();
+            String result = remote.in.readUTF();
+            if (!result.isEmpty()) {
+                throw error(result);
+            }
+        } catch (IOException excp) {
+            throw error("The remote end hung up unexpectedly.");
+        }
+    }
+
+    /** Serve a fetch on standard input and output: the remote side of
+     *  fetch(), run in the repository fetched from. */
+    static void uploadPack() {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in, 1 << 16));
+        DataOutputStream out = standardOutput();
+        try {
+            advertise(out);
+            List<String> wants = new ArrayList<>();
+            for (int count = in.readInt(); count > 0; count -= 1) {
+                String id = readId(in);
+                if (!ObjectStore.hasCommit(id)) {
+                    throw error("No commit with that id exists.");
+                }
+                wants.add(id);
+            }
+            if (wants.isEmpty()) {
+                return;
+            }
+            List<String> commons = new ArrayList<>();
+            for (int count = in.readInt(); count > 0; count = in.readInt()) {
+                List<String> acks = new ArrayList<>();
+                for (int i = 0; i < count; i += 1) {
+                    String id = readId(in);
+                    if (CommitGraph.find(id) >= 0) {
+                        acks.add(id);
+                    }
+                }
+                out.writeInt(acks.size());
+                for (String id : acks) {
+                    writeId(out, id);
+                }
+                out.flush();
+                commons.addAll(acks);
+            }
+            Transfer.send(Transfer.missingCommits(wants, commons), out);
+            out.flush();
+        } catch (EOFException excp) {
+            /* The fetching side went away. */
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Serve a push on standard input and output: the remote side of
+     *  push(), run in the repository pushed to, holding its WriteLock. */
+    static void receivePack() {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in, 1 << 16));
+        DataOutputStream out = standardOutput();
+        try {
+            Map<String, String> heads = advertise(out);
+            String branch = in.readUTF();
+            if (branch.isEmpty()) {
+                return;
+            }
+            String old = in.readUTF();
+            String head = in.readUTF();
+            Transfer.receive(in);
+            if (!Objects.equals(heads.get(branch), old.isEmpty() ? null : old)) {
+                out.writeUTF("Please pull down remote changes before pushing.");
+            } else if (!ObjectStore.hasCommit(head)) {
+                out.writeUTF("No commit with that id exists.");
+            } else {
+                /* Only the branch moves; files checked out here stay as
+                 * they are. */
+                Ref ref = new Ref();
+                ref.setLast(head);
+                ref.write(join(Repository.REF_DIR, branch));
+                out.writeUTF("");
+            }
+            out.flush();
+        } catch (EOFException excp) {
+            /* The pushing side went away. */
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Send the magic, the object format and the branch heads of this
+     *  repository to OUT, and return the heads. */
+    private static Map<String, String> advertise(DataOutputStream out) throws IOException {
+        TreeMap<String, String> heads = WriteLock.snapshot(Repository::heads);
+        out.writeInt(MAGIC);
+        out.writeUTF(ObjectFormat.algorithm());
+        out.writeInt(heads.size());
+        for (Map.Entry<String, String> head : heads.entrySet()) {
+            out.writeUTF(head.getKey());
+            writeId(out, head.getValue());
+        }
+        out.flush();
+        return heads;
+    }
+
+    /** A gitlet process serving a remote, see the protocol above. */
+    private static class Connection implements AutoCloseable {
+        final Process process;
+        final DataInputStream in;
+        final DataOutputStream out;
+        /** The branch heads of the remote. */
+        final TreeMap<String, String> refs = new TreeMap<>();
+
+        /** Start SERVICE in the repository whose .gitlet directory is DIR
+         *  and read what it advertises. */
+        Connection(File dir, String service) throws IOException {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    "-Dgitlet.daemon=false", "-Dgitlet.fsync=" + Journal.SYNC,
+                    "gitlet.Main", service)
+                    .directory(dir.getAbsoluteFile().getParentFile())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            in = new DataInputStream(new BufferedInputStream(process.getInputStream(), 1 << 16));
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), 1 << 16));
+            try {
+                byte[] magic = in.readNBytes(4);
+                if (magic.length < 4 || ByteBuffer.wrap(magic).getInt() != MAGIC) {
+                    /* It failed before speaking, printing why. */
+                    String message = new String(magic, StandardCharsets.UTF_8)
+                            + new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                    throw error(message.isBlank() ? "The remote end hung up unexpectedly."
+                            : message.trim());
+                }
+                String format = in.readUTF();
+                if (!format.equals(ObjectFormat.algorithm())) {
+                    throw error("The remote names objects with %s, this repository with %s.",
+                            format, ObjectFormat.algorithm());
+                }
+                for (int count = in.readInt(); count > 0; count -= 1) {
+                    refs.put(in.readUTF(), readId(in));
+                }
+            } catch (IOException | RuntimeException excp) {
+                process.destroy();
+                throw excp;
+            }
+        }
+
+        /** End the conversation and wait for the remote to exit. */
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } catch (IOException excp) {
+                /* It has already exited. */
+            }
+            try {
+                process.waitFor();
+            } catch (InterruptedException excp) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** A stream writing to this process's standard output directly, not
+     *  through System.out, which prints text. */
+    private static DataOutputStream standardOutput() {
+        return new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out), 1 << 16));
+    }
+
+    private static PriorityQueue<Integer> newestFirst() {
+        return new PriorityQueue<>((p, q) -> {
+            int cmp = Long.compare(CommitGraph.correctedDate(q), CommitGraph.correctedDate(p));
+            return cmp != 0 ? cmp : Integer.compare(q, p);
+        });
+    }
+
+    /** The graph positions of the parents of the commit at POS. */
+    private static List<Integer> parents(int pos) {
+        List<Integer> result = new ArrayList<>(2);
+        if (CommitGraph.firstParent(pos) >= 0) {
+            result.add(CommitGraph.firstParent(pos));
+        }
+        if (CommitGraph.secondParent(pos) >= 0) {
+            result.add(CommitGraph.secondParent(pos));
+        }
+        return result;
+    }
+
+    private static void writeId(DataOutputStream out, String id) throws IOException {
+        out.write(toRawId(id));
+    }
+
+    private static String readId(DataInputStream in) throws IOException {
+        byte[] raw = new byte[RAW_LENGTH];
+        in.readFully(raw);
+        return toHexId(raw, 0);
+    }
+}
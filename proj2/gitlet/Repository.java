@@ -1,8 +1,16 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static gitlet.Utils.*;
 
@@ -12,14 +20,21 @@ import static gitlet.Utils.*;
  *
  *  The structure of a  Repository is as follows:
  *  .gitlet/ -- top level folder for all persistent data
- *      - staging area/ -- folder containing current staged files which are represented by blobs
- *                          When files(blobs) are in this area, it means that they are tracked by gitlet and
- *                          prepare to be committed
- *      - removal area/ --folder containing gitlet rm files(blobs) just like staging area which temporary records
- *                        operations
- *      - commits/ -- folder containing all the serialized commits, file name is sha1
- *      - blobs/   -- folder containing all the serialized blobs, file name is sha1
+ *      - index -- the staging area, one binary file sorted by path, see Index
+ *                 When files(blobs) are staged for addition in it, it means that they are tracked by gitlet and
+ *                 prepare to be committed. gitlet rm files are staged for removal in it the same way.
+ *      - commits/ -- folder containing all the loose serialized commits, file name is sha1
+ *      - trees/   -- folder containing the loose directory snapshots commits point to, see Tree
+ *      - blobs/   -- folder containing all the loose serialized blobs, file name is sha1
+ *      - chunks/  -- folder containing the loose chunks of file contents which blobs point to, see Chunker
+ *      - packs/   -- folder containing pack files which hold commits and blobs folded in by repack,
+ *                    see ObjectStore and PackFile
+ *      - commit-graph -- binary index of commit parents and generation numbers, see CommitGraph
+ *      - commit-ids -- sorted commit ids for resolving abbreviated ids, see CommitGraph
+ *      - messages/ -- inverted index of commit messages for find, see MessageIndex
  *      - refs/     --folder containing refs, file name is branch name, fields are blobs name(sha1)
+ *                   refs/REMOTE/BRANCH holds branch BRANCH as last fetched from REMOTE
+ *      - remotes/  -- folder containing one file per remote, holding the path of its .gitlet, see Remote
  *      - currentBranch/ --folder containing just one file, file name is current working branch,nothing else here
  */
 public class Repository {
@@ -36,43 +51,85 @@ public class Repository {
     public static final File GITLET_DIR = join(CWD, ".gitlet");
 
     public static final File COMMITS_DIR = join(GITLET_DIR, "commits");
+    public static final File TREES_DIR = join(GITLET_DIR, "trees");
     public static final File BLOBS_DIR = join(GITLET_DIR, "blobs");
+    public static final File CHUNKS_DIR = join(GITLET_DIR, "chunks");
 
-    public static final File STAGING_DIR = join(GITLET_DIR, "staging");
-    public static final File REMOVAL_DIR = join(GITLET_DIR, "removal");
 
     public static final File REF_DIR = join(GITLET_DIR, "refs");
 
     /*The file name in this folder denotes current branch*/
     public static final File CURRENT_BRANCH = join(GITLET_DIR, "currentBranch");
 
+    /* The staging area, see index() */
+    private static Index index;
+
+    /* How many commits an ambiguous abbreviated id lists, see findFullId */
+    private static final int MAX_CANDIDATES = 10;
+
+    /** Forget whatever this process holds in memory that the files it was
+     *  read from no longer say, as after a command run by another process.
+     *  Called by Main.run before each command, which matters in a daemon
+     *  or batch running many. */
+    static void reload() {
+        if (index != null && !index.isCurrent()) {
+            index = null;
+        }
+        ObjectStore.reload();
+        CommitGraph.reload();
+        ChangedPaths.reload();
+    }
+
     /** Generate persistent blobs and if the blob's name(sha1) is new, add it to blobs dir and staging dir.
      *  User sha1(content) as the blob's name
      */
     public static void add(String filename) {
-        if (!BLOBS_DIR.exists()) {
-            BLOBS_DIR.mkdir();
-        }
+        add(Collections.singletonList(filename));
+    }
 
-        if (!join(CWD, filename).exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
+    /** Add every file in PATHS, where a directory stands for all files below it.
+     *  The current commit and the staging and removal areas are read once, then the
+     *  files are hashed and stored on the common fork-join pool, one task per file.
+     */
+    public static void add(List<String> paths) {
+        List<String> files = new ArrayList<>();
+        for (String path : paths) {
+            File file = join(CWD, path);
+            if (!file.exists()) {
+                throw error("File does not exist.");
+            }
+            if (file.isDirectory()) {
+                files.addAll(filesUnder(file));
+            } else {
+                files.add(relativePath(file));
+            }
         }
 
-        Boolean isAddFromRemoval = addFromRemoval(filename);
-        if (isAddFromRemoval) {
+        String currentCommit = findCommit(plainFilenamesIn(CURRENT_BRANCH).get(0));
+        HashMap<String, String> blobsInCurrentCommit = findBlobsHashMap(currentCommit);
+        Index index = index();
+
+        files.parallelStream().forEach(filename -> addFile(filename, blobsInCurrentCommit, index));
+        index.write();
+    }
+
+    private static void addFile(String filename, HashMap<String, String> blobsInCurrentCommit, Index index) {
+        /*see rm function     */
+        if (index.is(filename, Index.REMOVED)) {
+            index.unstage(filename);
             return;
         }
 
         File filepath = Utils.join(CWD, filename);
-        String fileContent = Utils.readContentsAsString(filepath);
-        String sha1Code = sha1(fileContent, filename);
-
-        String currentCommit = findCommit(plainFilenamesIn(CURRENT_BRANCH).get(0));
-        HashMap<String, String> blobsInCurrentCommit = findBlobsHashMap(currentCommit);
-
-        File blobPath = Utils.join(BLOBS_DIR, sha1Code);
-        if (blobsInCurrentCommit != null && blobsInCurrentCommit.containsValue(sha1Code)) {
+        BasicFileAttributes attrs = WorkingTree.stat(filepath);
+        Index.Entry entry = index.get(filename);
+        /* A file whose stat data changed is hashed as it is chunked and
+         * stored, in one read; chunks and blobs already stored are not
+         * written again. */
+        String sha1Code = entry != null && index.isUpToDate(entry, attrs)
+                ? entry.blobId : Blob.store(filename, filepath);
+
+        if (blobsInCurrentCommit != null && sha1Code.equals(blobsInCurrentCommit.get(filename))) {
             /*
             If the current working version of the file is identical
             to the version in the current commit, do not stage it to be added,
@@ -80,48 +137,58 @@ public class Repository {
             (as can happen when a file is changed, added,
             and then changed back to it’s original version).
              */
-            if (blobPath.exists()) {
-                blobPath.delete();
-            }
+            index.track(filename, sha1Code, attrs, filepath.canExecute());
         } else {
-            Blob blob = new Blob(filename, fileContent);
-            Utils.writeObject(blobPath, blob);
-            File stagePath = Utils.join(STAGING_DIR, sha1Code);
-            Utils.writeObject(stagePath, blob);
+            if (!ObjectStore.hasBlob(sha1Code)) {
+                /* Only hashed, by status or diff refreshing the index. */
+                sha1Code = Blob.store(filename, filepath);
+            }
+            index.add(filename, sha1Code, filepath);
         }
     }
 
-    /*see rm function     */
-    private static Boolean addFromRemoval(String filename) {
-        String blobToRestoreId = null;
-        Boolean isAddFromRemoval = false;
-
-        for (String removalBlob : Utils.plainFilenamesIn(REMOVAL_DIR)) {
-            Blob b = Utils.readObject(Utils.join(BLOBS_DIR, removalBlob), Blob.class);
-            if (b.getFileName().equals(filename)) {
-                //Utils.writeContents(Utils.join(CWD, filename), b.getFileContent());
-                blobToRestoreId = removalBlob;
-                break;
-            }
-        }
-        if (blobToRestoreId != null) {
-            isAddFromRemoval = true;
-            Utils.join(REMOVAL_DIR, blobToRestoreId).delete();
+    /* All plain files below DIR, as paths relative to CWD, skipping .gitlet */
+    private static List<String> filesUnder(File dir) {
+        Path gitlet = GITLET_DIR.toPath().toAbsolutePath().normalize();
+        try (Stream<Path> walk = Files.walk(dir.toPath().toAbsolutePath().normalize())) {
+            return walk.filter(p -> !p.startsWith(gitlet) && Files.isRegularFile(p))
+                    .map(p -> relativePath(p.toFile()))
+                    .collect(Collectors.toList());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        return isAddFromRemoval;
     }
 
+    /* FILE's path relative to CWD, with '/' between directories */
+    private static String relativePath(File file) {
+        Path relative = CWD.toPath().relativize(file.toPath().toAbsolutePath().normalize());
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    /* Delete the working file FILENAME, which may be inside a sub directory of CWD */
+    static void deleteWorkingFile(String fileName) {
+        File file = join(CWD, fileName);
+        if (file.getParentFile().equals(CWD)) {
+            Utils.restrictedDelete(file);
+        } else if (GITLET_DIR.isDirectory()) {
+            file.delete();
+        }
+    }
 
     public static void init() {
+        init(ObjectFormat.requested());
+    }
+
+    /* Make a repository whose objects are named with FORMAT, see ObjectFormat */
+    private static void init(String format) {
         GITLET_DIR.mkdir();
+        ObjectFormat.init(format);
         COMMITS_DIR.mkdir();
-        STAGING_DIR.mkdir();
-        REMOVAL_DIR.mkdir();
         REF_DIR.mkdir();
         CURRENT_BRANCH.mkdir();
         Utils.writeContents(Utils.join(CURRENT_BRANCH, "master"), "");
         Ref firstRef = new Ref();
-        Utils.writeObject(Utils.join(REF_DIR, "master"), firstRef);
+        firstRef.write(Utils.join(REF_DIR, "master"));
         commit("initial commit");
     }
 
@@ -132,13 +199,12 @@ public class Repository {
      */
     public static void commit(String msg) {
         if (msg.equals("")) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw error("Please enter a commit message.");
         }
         Commit commit = new Commit();
         commit.setMessage(msg);
         String currentBranch = Utils.plainFilenamesIn(CURRENT_BRANCH ).get(0);
-        Ref ref = Utils.readObject(Utils.join(REF_DIR, currentBranch), Ref.class);
+        Ref ref = Ref.read(Utils.join(REF_DIR, currentBranch));
         String[] msgArray = msg.split(" ");
 
         if (msgArray[0].equals("Merged") && msgArray[2].equals("into")) {
@@ -149,60 +215,55 @@ public class Repository {
     }
 
     private static void commitHelper(String givenBranch, String currentBranch,Ref ref, Commit commit) {
-        if (Utils.plainFilenamesIn(COMMITS_DIR).size() == 0) {
+        if (ref.getLast() == null) {
             commit.setDate(new Date(0L));
         } else {
             commit.setDate(new Date());
             String lastCommitSha1 = ref.getLast();
-            HashMap<String, String> bList;
-            HashMap<String, String> bRemovalList;
             //System.out.println(lastCommitSha1);
-            Commit lastCommit = Utils.readObject(Utils.join(COMMITS_DIR, lastCommitSha1), Commit.class);
-            bList = lastCommit.getBlobs();
-            bRemovalList = lastCommit.getRemovalBlobs();
+            Commit lastCommit = ObjectStore.readCommit(lastCommitSha1);
 
-            if (Utils.plainFilenamesIn(STAGING_DIR).size() == 0 && Utils.plainFilenamesIn(REMOVAL_DIR).size() == 0) {
-                System.out.println("No changes added to the commit.");
-                System.exit(0);
+            Index index = index();
+            if (!index.hasStaged()) {
+                throw error("No changes added to the commit.");
             }
 
-            if (bList == null) {
-                bList = new HashMap<>();
+            /* Only the staged paths change; the new tree shares every other
+             * directory with the last commit's tree. */
+            HashMap<String, String> changes = new HashMap<>();
+            for (Index.Entry staged : index.added()) {
+                changes.put(staged.path, staged.blobId);
             }
-            for (String blobSha1 : Utils.plainFilenamesIn(STAGING_DIR)) {
-                Blob b = Utils.readObject(Utils.join(STAGING_DIR, blobSha1), Blob.class);
-                bList.put(b.getFileName(), blobSha1);
-                //System.out.println("This bulbs in staging is committing: " + blobSha1);
-
+            for (Index.Entry removed : index.removed()) {
+                changes.put(removed.path, null);
             }
 
-            if (bRemovalList == null) {
-                bRemovalList = new HashMap<>();
-            }
-            for (String blobSha1 : Utils.plainFilenamesIn(REMOVAL_DIR)) {
-                Blob b = Utils.readObject(Utils.join(REMOVAL_DIR, blobSha1), Blob.class);
-                bRemovalList.put(b.getFileName(), blobSha1);
-                bList.remove(b.getFileName());
-            }
-
-            clearStaging();
-            commit.setBlobs(bList);
-            commit.setRemovalBlobs(bRemovalList);
+            index.committed();
+            commit.setTree(Tree.update(lastCommit.getTree(), changes));
             commit.setxParent(ref.getLast());
             if (givenBranch != null) {
-                Ref givenRef = readObject(join(REF_DIR, givenBranch), Ref.class);
+                Ref givenRef = Ref.read(join(REF_DIR, givenBranch));
                 commit.setyParent(givenRef.getLast());
             }
         }
         String xParent =  commit.getxParent();
         String sha1Code = Utils.sha1(dateToString(commit.getDate()), commit.getMessage(),
                 xParent == null ? " ": xParent, plainFilenamesIn(CURRENT_BRANCH).get(0));
-        File commitPath = Utils.join(COMMITS_DIR, sha1Code);
-        Utils.writeObject(commitPath, commit);
+        ObjectStore.writeCommit(sha1Code, commit);
+        CommitGraph.add(sha1Code, commit);
+        MessageIndex.add(sha1Code, commit.getMessage());
 
-        /*update the ref*/
+        /*update the ref and the index together, after the objects are durable*/
+        Journal tx = new Journal();
         ref.setLast(sha1Code);
-        Utils.writeObject(Utils.join(REF_DIR, currentBranch), ref);
+        ref.write(tx, Utils.join(REF_DIR, currentBranch));
+        if (xParent != null) {
+            index().write(tx);
+        }
+        tx.commit();
+        if (xParent != null) {
+            index().written();
+        }
     }
 
     /*get the current branch name in currentBranch, file's name in it tells you
@@ -220,195 +281,244 @@ public class Repository {
 
     public static void checkoutFile2(String commitId, String file) {
         commitId = findFullId(commitId);
-        if (commitId == null || !join(COMMITS_DIR, commitId).exists()) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+        if (commitId == null || !ObjectStore.hasCommit(commitId)) {
+            throw error("No commit with that id exists.");
         }
 
         String shaIdOfBlob = findBlobInCommit(commitId, file);
         writeBlobToCWD(shaIdOfBlob);
     }
 
+    /** Return the full id of the commit whose id starts with SHORTID, or
+     *  null if there is none.  Exits listing the candidates if SHORTID is
+     *  the prefix of several commit ids.  See CommitGraph.resolve. */
     private static String findFullId(String shortId) {
-        for (String id : plainFilenamesIn(COMMITS_DIR)) {
-            if (id.contains(shortId)) {
-                return id;
-            }
+        List<String> candidates = CommitGraph.resolve(shortId, MAX_CANDIDATES);
+        if (candidates.size() > 1) {
+            throw error("Ambiguous commit id %s; it could be:%n%s", shortId,
+                    String.join(System.lineSeparator(), candidates));
         }
-        return null;
+        return candidates.isEmpty() ? null : candidates.get(0);
     }
 
     public static void checkoutBranch(String branchName) {
-        if (!join(REF_DIR, branchName).exists()) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+        if (!join(REF_DIR, branchName).isFile()) {
+            throw error("No such branch exists.");
+        }
+        if (branchName.contains("/")) {
+            throw error("Cannot check out a remote branch; merge it into a branch instead.");
         }
         List<String> nameOfBranches = Utils.plainFilenamesIn(CURRENT_BRANCH );
         if (nameOfBranches.get(0).equals(branchName)) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            throw error("No need to checkout the current branch.");
         } else {
-            clearStaging();
             String oldShaIdOfCommit = findCommit(nameOfBranches.get(0));
-            Commit oldCommit = Utils.readObject(Utils.join(COMMITS_DIR, oldShaIdOfCommit), Commit.class);
-            if (oldCommit.getBlobs() != null) { //check if it is init
-                for (String fileName : oldCommit.getBlobs().keySet()) {
-                    Utils.restrictedDelete(fileName);
-                }
-            }
-
             String newShaIdOfCommit = findCommit(branchName);
-            Commit commit = Utils.readObject(Utils.join(COMMITS_DIR, newShaIdOfCommit), Commit.class);
-            if (commit.getBlobs() != null) { // check if it is init
-                for (String fileName : commit.getBlobs().keySet()) {
-                    if (Utils.join(CWD, fileName).exists()) {
-                        System.out.println("There is an untracked file in the way; "
-                                + "delete it, or add and commit it first.");
-                        System.exit(0);
-                    } else {
-                        writeBlobToCWD(commit.getBlobs().get(fileName));
-                    }
+            TreeMap<String, String[]> changed = Tree.diff(ObjectStore.readCommit(oldShaIdOfCommit).getTree(),
+                    ObjectStore.readCommit(newShaIdOfCommit).getTree());
+
+            /* Check everything before changing anything */
+            for (Map.Entry<String, String[]> change : changed.entrySet()) {
+                if (change.getValue()[0] == null && Utils.join(CWD, change.getKey()).exists()) {
+                    throw error("There is an untracked file in the way; "
+                            + "delete it, or add and commit it first.");
                 }
             }
 
-            changeCurrentBranch(branchName);
+            HashMap<String, String> newFiles = findBlobsHashMap(newShaIdOfCommit);
+            WorkingTree.checkout(newFiles == null ? new HashMap<>() : newFiles, changed, index());
+
+            Journal tx = new Journal();
+            index().write(tx);
+            changeCurrentBranch(tx, branchName);
+            tx.commit();
+            index().written();
         }
     }
 
-    public static void log() {
-        String currentBranch = Utils.plainFilenamesIn(CURRENT_BRANCH).get(0);
-        String currentCommitShaId = findCommit(currentBranch);
-
-        while (currentCommitShaId != null) {
-            Commit currentCommit = readObject(Utils.join(COMMITS_DIR, currentCommitShaId), Commit.class);
-            printCommit(currentCommit, currentCommitShaId);
-            currentCommitShaId = currentCommit.getxParent();
-        }
+    /* Print the history of the current branch as LOG selects it, see Log. */
+    public static void log(Log log) {
+        String head = Snapshot.read().commit;
+        PrintStream out = Log.output();
+        log.print(head, out);
+        out.flush();
     }
 
-    //not sure print all commits or print all commits of master
+    /* Print every commit, newest first, from the commit graph. */
     public static void globalLog() {
-        //print all commits
+        PrintStream out = Log.output();
+        Log.printAll(out);
+        out.flush();
+    }
 
-        for (String commitShaId : Utils.plainFilenamesIn(COMMITS_DIR)) {
-            Commit currentCommit = readObject(Utils.join(COMMITS_DIR, commitShaId), Commit.class);
-            printCommit(currentCommit, commitShaId);
+    public static void branch(String branchName) {
+        if (join(REF_DIR, branchName).exists()) {
+            throw error("A branch with that name already exists.");
         }
+        String currentBranch = plainFilenamesIn(CURRENT_BRANCH).get(0);
+        String currentCommitId = findCommit(currentBranch);
+        Ref ref = new Ref();
+        ref.setLast(currentCommitId);
+        ref.write(join(REF_DIR, branchName));
+    }
 
+    /** Print the ids of all commits whose message is MSG, looked up in the
+     *  message index rather than by reading every commit, see MessageIndex. */
+    public static void find(String msg) {
+        printFound(MessageIndex.exact(msg));
+    }
 
-        //print all commits of master
-        /*
-        Ref ref = Utils.readObject(Utils.join(REF_DIR, "master"), Ref.class);
+    /** Print the ids of all commits whose message starts with PREFIX. */
+    public static void findPrefix(String prefix) {
+        printFound(MessageIndex.prefix(prefix));
+    }
 
-        String currentCommitShaId = ref.getLast();
+    /** Print the ids of all commits whose message contains all of WORDS. */
+    public static void findWords(List<String> words) {
+        printFound(MessageIndex.containing(words));
+    }
 
-        while (currentCommitShaId != null) {
-            Commit currentCommit = readObject(Utils.join(COMMITS_DIR, currentCommitShaId), Commit.class);
-            printCommit(currentCommit, currentCommitShaId);
-            currentCommitShaId = currentCommit.getxParent();
+    private static void printFound(List<String> commitShaIds) {
+        if (commitShaIds.isEmpty()) {
+            System.out.println("Found no commit with that message.");
         }
-        */
+        for (String commitShaId : commitShaIds) {
+            System.out.println(commitShaId);
+        }
+    }
 
+    /* Changes in the working directory not yet staged: each modified or
+     * deleted tracked file against its staged version, or its version in
+     * the current commit if it is not staged. See Diff for the format.
+     */
+    public static void diffWorking() {
+        Snapshot snapshot = Snapshot.read();
+        Index index = snapshot.index;
+        HashMap<String, String> head = findBlobsHashMap(snapshot.commit);
+        WorkingTree.Status changes = WorkingTree.status(head, index);
+        if (changes.indexChanged) {
+            refreshIndex(index);
+        }
+        for (String path : changes.modified.keySet()) {
+            Index.Entry entry = index.get(path);
+            String expected = entry != null && entry.state == Index.ADDED ? entry.blobId : head.get(path);
+            File file = join(CWD, path);
+            Diff.Lines working = null;
+            if (file.exists()) {
+                Blob.checkComparable(path, file.length());
+                try {
+                    working = new Diff.Lines(Files.readAllBytes(file.toPath()));
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+            Diff.print(System.out, path, Diff.ofBlob(expected), working);
+        }
     }
 
-    public static void branch(String branchName) {
-        if (join(REF_DIR, branchName).exists()) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+    /* Changes staged for the next commit, against the current commit. */
+    public static void diffStaged() {
+        Snapshot snapshot = Snapshot.read();
+        HashMap<String, String> head = findBlobsHashMap(snapshot.commit);
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        for (Index.Entry entry : snapshot.index.added()) {
+            changes.put(entry.path, new String[] {head == null ? null : head.get(entry.path), entry.blobId});
         }
-        String currentBranch = plainFilenamesIn(CURRENT_BRANCH).get(0);
-        String currentCommitId = findCommit(currentBranch);
-        Ref ref = new Ref();
-        ref.setLast(currentCommitId);
-        writeObject(join(REF_DIR, branchName), ref);
+        for (Index.Entry entry : snapshot.index.removed()) {
+            changes.put(entry.path, new String[] {entry.blobId, null});
+        }
+        printDiffs(changes);
     }
 
-    private static void printCommit(Commit commit, String commitId) {
-        System.out.println("===");
-        System.out.println("commit " + commitId);
-        System.out.println("Date: " + dateToString(commit.getDate()));
-        System.out.println(commit.getMessage());
-        System.out.println();
+    /* Changes from commit FROM to commit TO, each a branch name or a
+     * commit id. Only the trees of directories that differ are read.
+     */
+    public static void diffCommits(String from, String to) {
+        Commit a = ObjectStore.readCommit(resolveCommit(from));
+        Commit b = ObjectStore.readCommit(resolveCommit(to));
+        printDiffs(Tree.diff(a.getTree(), b.getTree()));
     }
 
-    public static void find(String msg) {
-        Boolean isfind = false;
-        for (String commitShaId : Utils.plainFilenamesIn(COMMITS_DIR)) {
-            Commit currentCommit = readObject(Utils.join(COMMITS_DIR, commitShaId), Commit.class);
-            if (currentCommit.getMessage().equals(msg)) {
-                System.out.println(commitShaId);
-                isfind = true;
+    private static void printDiffs(TreeMap<String, String[]> changes) {
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String[] ids = change.getValue();
+            if (ids[0] == null || !ids[0].equals(ids[1])) {
+                Diff.print(System.out, change.getKey(), Diff.ofBlob(ids[0]), Diff.ofBlob(ids[1]));
             }
         }
-        if (!isfind) {
-            System.out.println("Found no commit with that message.");
+    }
+
+    /* The commit named by branch NAME, or by a (short) commit id */
+    private static String resolveCommit(String name) {
+        if (join(REF_DIR, name).exists()) {
+            return findCommit(name);
+        }
+        String id = findFullId(name);
+        if (id == null || !ObjectStore.hasCommit(id)) {
+            throw error("No commit with that id exists.");
         }
+        return id;
     }
 
     //The command is essentially checkout of an arbitrary commit that also changes the current branch head.
     public static void reset(String commitShaId) {
         commitShaId = findFullId(commitShaId);
 
-        if (commitShaId == null || !Utils.join(COMMITS_DIR, commitShaId).exists()) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+        if (commitShaId == null || !ObjectStore.hasCommit(commitShaId)) {
+            throw error("No commit with that id exists.");
         }
 
         //If a working file is untracked in the current branch and would be overwritten by the reset
-        Commit commit = Utils.readObject(Utils.join(COMMITS_DIR, commitShaId), Commit.class);
+        HashMap<String, String> files = findBlobsHashMap(commitShaId);
+        if (files == null) { // the initial commit has no files
+            files = new HashMap<>();
+        }
         HashSet<String> filesInThisBranch = findfilesInBranch(plainFilenamesIn(CURRENT_BRANCH).get(0));
-        for (String file : plainFilenamesIn(CWD)) {
+        for (String file : WorkingTree.scan().keySet()) {
             if (!filesInThisBranch.contains(file)) {
-                if (commit.getBlobs().keySet().contains(file)) {
-                    System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                    System.exit(0);
+                if (files.containsKey(file)) {
+                    throw error("There is an untracked file in the way; delete it, or add and commit it first.");
                 }
             }
         }
 
-        //delete tracked file which are not in this commitShaId
-        List<String> blobIds = Utils.plainFilenamesIn(BLOBS_DIR);
-        List<String> fileNames = readFileNames(blobIds);
-        List<String> filesInCWD = new ArrayList<>(Utils.plainFilenamesIn(CWD));
-        Set<String> fileNamesSet = new HashSet<>(fileNames);
-        filesInCWD.removeIf(item -> fileNamesSet.contains(item));
-
-        //write blobs of this commit
-        for (String blobShaId : commit.getBlobs().values()) {
-            writeBlobToCWD(blobShaId);
-        }
-
-        clearStaging();
+        //write the files that differ from the current commit, delete those it alone tracks
+        String currentCommit = findCommit(plainFilenamesIn(CURRENT_BRANCH).get(0));
+        WorkingTree.checkout(files, Tree.diff(ObjectStore.readCommit(currentCommit).getTree(),
+                ObjectStore.readCommit(commitShaId).getTree()), index());
 
-        //moves the current branch’s head to that commit node
+        //moves the current branch’s head to that commit node, clearing the staging area with it
         String currentBranch = Utils.plainFilenamesIn(CURRENT_BRANCH).get(0);
-        Ref ref = Utils.readObject(Utils.join(REF_DIR, currentBranch), Ref.class);
+        Ref ref = Ref.read(Utils.join(REF_DIR, currentBranch));
         ref.setCurrent(commitShaId);
-        Utils.writeObject(Utils.join(REF_DIR, currentBranch), ref);
+        Journal tx = new Journal();
+        ref.write(tx, Utils.join(REF_DIR, currentBranch));
+        index().write(tx);
+        tx.commit();
+        index().written();
 
     }
     public static void rmBranch(String branchName) {
         if (!join(REF_DIR, branchName).exists()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
         if (plainFilenamesIn(CURRENT_BRANCH).get(0).equals(branchName)) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw error("Cannot remove the current branch.");
         }
         join(REF_DIR, branchName).delete();
     }
 
     private static HashSet<String> findfilesInBranch(String branch) {
         HashSet<String> files = new HashSet<>();
-        Ref ref = readObject(Utils.join(REF_DIR, branch), Ref.class);
+        Ref ref = Ref.read(Utils.join(REF_DIR, branch));
         String masterId = ref.getLast();
-        Commit current = readObject(Utils.join(COMMITS_DIR, masterId), Commit.class);
+        Commit current = ObjectStore.readCommit(masterId);
+        HashSet<String> seenTrees = new HashSet<>();
         while (current.getxParent() != null) {
-            if (current.getBlobs() != null) {
-                files.addAll(current.getBlobs().keySet());
+            if (seenTrees.add(current.getTree())) {
+                files.addAll(Tree.files(current.getTree()).keySet());
             }
-            current = readObject(Utils.join(COMMITS_DIR, current.getxParent()), Commit.class);
+            current = ObjectStore.readCommit(current.getxParent());
         }
         return files;
     }
@@ -436,27 +546,18 @@ public class Repository {
     public static void rm(String fileName) {
         File filepath = Utils.join(CWD, fileName);
         if (filepath.exists()) {
-            String fileContent = Utils.readContentsAsString(filepath);
-            String sha1Code = sha1(fileContent, fileName);
+            String sha1Code = Blob.hash(filepath, fileName);
 
-            if (!join(BLOBS_DIR, sha1Code).exists() && !join(REMOVAL_DIR, sha1Code).exists()
-                    && !join(COMMITS_DIR, sha1Code).exists()) {
-                System.out.println("No reason to remove the file.");
-                System.exit(0);
+            if (!ObjectStore.hasBlob(sha1Code) && !index().is(fileName, Index.REMOVED)
+                    && !ObjectStore.hasCommit(sha1Code)) {
+                throw error("No reason to remove the file.");
             }
         }
 
         /* removal staging file*/
-        String unStageFile = null;
-        for (String fileInStage :Utils.plainFilenamesIn(STAGING_DIR)) {
-            Blob b = Utils.readObject(Utils.join(STAGING_DIR, fileInStage), Blob.class);
-            if (fileName.equals(b.getFileName())) {
-                unStageFile = fileInStage;
-                break;
-            }
-        }
-        if (unStageFile != null) {
-            Utils.join(STAGING_DIR, unStageFile).delete();
+        if (index().is(fileName, Index.ADDED)) {
+            index().unstage(fileName);
+            index().write();
             return;
         }
 
@@ -465,20 +566,18 @@ public class Repository {
         String currentCommit = findCommit(currentBranch);
         String blobShaId = findBlobInCommit(currentCommit, fileName);
         if (blobShaId != null) {
-            Utils.restrictedDelete(Utils.join(CWD, fileName));
-            Blob b = readObject(Utils.join(BLOBS_DIR, blobShaId), Blob.class);
-            Utils.writeObject(Utils.join(REMOVAL_DIR, blobShaId), b);
+            deleteWorkingFile(fileName);
+            index().remove(fileName, blobShaId);
+            index().write();
         }
 
     }
 
     public static void status() {
-        String currentBranch = Utils.plainFilenamesIn(CURRENT_BRANCH).get(0);
-        List<String> branches = Utils.plainFilenamesIn(REF_DIR);
-        List<String> stagingBlobs = Utils.plainFilenamesIn(STAGING_DIR);
-        List<String> stagingFiles = readFileNames(stagingBlobs);
-        List<String> removalBlobs = Utils.plainFilenamesIn(REMOVAL_DIR);
-        List<String> removalFiles = readFileNames(removalBlobs);
+        Snapshot snapshot = Snapshot.read();
+        String currentBranch = snapshot.branch;
+        List<String> branches = snapshot.branches;
+        Index index = snapshot.index;
 
         System.out.println("=== Branches ===");
         for (String branch : branches) {
@@ -491,71 +590,228 @@ public class Repository {
         System.out.println();
 
         System.out.println("=== Staged Files ===");
-        for (String file : stagingFiles) {
-            System.out.println(file);
+        for (Index.Entry staged : index.added()) {
+            System.out.println(staged.path);
         }
         System.out.println();
 
         System.out.println("=== Removed Files ===");
-        for (String file : removalFiles) {
-            System.out.println(file);
+        for (Index.Entry removed : index.removed()) {
+            System.out.println(removed.path);
         }
         System.out.println();
 
+        WorkingTree.Status changes = WorkingTree.status(findBlobsHashMap(snapshot.commit), index);
+        if (changes.indexChanged) {
+            refreshIndex(index);
+        }
+
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (Map.Entry<String, String> file : changes.modified.entrySet()) {
+            System.out.println(file.getKey() + " (" + file.getValue() + ")");
+        }
         System.out.println();
+
         System.out.println("=== Untracked Files ===");
+        for (String file : changes.untracked) {
+            System.out.println(file);
+        }
         System.out.println();
 
     }
 
-    private static List<String> readFileNames(List<String> blobs) {
-        String[] files = new String[blobs.size()];
-        for (int i = 0; i < blobs.size(); i++) {
-            Blob b = readObject(Utils.join(BLOBS_DIR, blobs.get(i)), Blob.class);
-            files[i] = (b.getFileName());
+    /* The staging area of this invocation, read from .gitlet/index on first use */
+    private static Index index() {
+        if (index == null) {
+            index = Index.read();
+        }
+        return index;
+    }
+
+    /* Write INDEX, whose stat data a command that only reads refreshed,
+     * unless another process holds the WriteLock or changed the index
+     * since; the refresh is only a cache. */
+    private static void refreshIndex(Index index) {
+        if (!WriteLock.tryAcquire()) {
+            return;
+        }
+        try {
+            if (index.isCurrent()) {
+                index.write();
+            }
+        } finally {
+            WriteLock.release();
         }
-        Arrays.sort(files);
-        return Arrays.asList(files);
     }
 
-    private static void clearStaging() {
-        for (String blobSha1 : Utils.plainFilenamesIn(STAGING_DIR)) {
-            Boolean b = Utils.join(STAGING_DIR, blobSha1).delete();
-            //System.out.println("This bulbs in staging is deleting: " +  b);
+    /** What the commands that only read need of refs and the index, read
+     *  as of one moment without taking the WriteLock. */
+    private static class Snapshot {
+        final String branch;
+        final List<String> branches;
+        final String commit;
+        final Index index;
+
+        private Snapshot() {
+            if (Repository.index != null && !Repository.index.isCurrent()) {
+                Repository.index = null;
+            }
+            index = index();
+            branch = plainFilenamesIn(CURRENT_BRANCH).get(0);
+            branches = branches();
+            commit = findCommit(branch);
+        }
+
+        static Snapshot read() {
+            return WriteLock.snapshot(Snapshot::new);
         }
+    }
+
+    /* Every branch, those fetched from remotes as REMOTE/BRANCH, sorted */
+    static List<String> branches() {
+        List<String> result = new ArrayList<>(plainFilenamesIn(REF_DIR));
+        File[] remotes = REF_DIR.listFiles(File::isDirectory);
+        if (remotes != null) {
+            for (File remote : remotes) {
+                for (String branch : plainFilenamesIn(remote)) {
+                    result.add(remote.getName() + "/" + branch);
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /* Every branch with its head, see Remote */
+    static TreeMap<String, String> heads() {
+        TreeMap<String, String> result = new TreeMap<>();
+        for (String branch : branches()) {
+            result.put(branch, findCommit(branch));
+        }
+        return result;
+    }
+
+    /* Move the current branch to COMMITID, a descendant of its head, and
+     * check it out; used to merge a remote branch, which cannot be checked
+     * out itself */
+    private static void fastForward(String commitId) {
+        String currentBranch = plainFilenamesIn(CURRENT_BRANCH).get(0);
+        String currentCommitId = findCommit(currentBranch);
+        TreeMap<String, String[]> changed = Tree.diff(ObjectStore.readCommit(currentCommitId).getTree(),
+                ObjectStore.readCommit(commitId).getTree());
+        HashMap<String, String> newFiles = findBlobsHashMap(commitId);
+        WorkingTree.checkout(newFiles == null ? new HashMap<>() : newFiles, changed, index());
+
+        Journal tx = new Journal();
+        Ref ref = new Ref();
+        ref.setLast(commitId);
+        ref.write(tx, join(REF_DIR, currentBranch));
+        index().write(tx);
+        tx.commit();
+        index().written();
+    }
+
+    /* Record the repository whose .gitlet directory is PATH as remote NAME */
+    public static void addRemote(String name, String path) {
+        Remote.add(name, path);
+    }
+
+    public static void rmRemote(String name) {
+        Remote.remove(name);
+    }
+
+    /* Copy branch BRANCH of remote REMOTE into branch REMOTE/BRANCH, see Remote */
+    public static void fetch(String remote, String branch) {
+        Remote.fetch(remote, branch);
+    }
+
+    /* Make the head of the current branch the head of branch BRANCH of remote REMOTE */
+    public static void push(String remote, String branch) {
+        Remote.push(remote, branch, Snapshot.read().commit);
+    }
+
+    /* Fetch branch BRANCH of remote REMOTE and merge it into the current branch */
+    public static void pull(String remote, String branch) {
+        Remote.fetch(remote, branch);
+        merge(remote + "/" + branch);
+    }
 
-        for (String blobSha1 : Utils.plainFilenamesIn(REMOVAL_DIR)) {
-            Boolean b = Utils.join(REMOVAL_DIR, blobSha1).delete();
-            //System.out.println("This bulbs in staging is deleting: " +  b);
+    /* Make a repository in CWD holding the current branch of the repository
+     * whose .gitlet directory is PATH, which becomes remote "origin" */
+    public static void clone(String path) {
+        File dir = new File(path.replace('/', File.separatorChar));
+        if (!dir.isAbsolute()) {
+            dir = new File(CWD, dir.getPath());
         }
+        if (!join(dir, "currentBranch").isDirectory()) {
+            throw error("Remote directory not found.");
+        }
+        String branch = plainFilenamesIn(join(dir, "currentBranch")).get(0);
+        init(ObjectFormat.of(dir));
+        WriteLock.acquire();
+        try {
+            Remote.add("origin", path);
+            if (!branch.equals("master")) {
+                branch(branch);
+                checkoutBranch(branch);
+            }
+            fastForward(Remote.fetch("origin", branch));
+        } finally {
+            WriteLock.release();
+        }
+    }
 
+    /* Fold all loose commits and blobs into pack files, see ObjectStore */
+    public static void repack() {
+        int count = ObjectStore.repack();
+        System.out.println("Packed " + count + " objects.");
     }
 
-    private static void changeCurrentBranch(String newBranch) {
+    /* Delete every object no branch and no staged file can reach, see
+     * GarbageCollector.  Both commits of a branch moved by reset are kept.
+     * Unless PRUNENOW, loose objects written since gc started are kept too. */
+    public static void gc(boolean pruneNow) {
+        List<String> rootCommits = new ArrayList<>();
+        for (String branch : branches()) {
+            Ref ref = Ref.read(Utils.join(REF_DIR, branch));
+            if (ref.getLast() != null) {
+                rootCommits.add(ref.getLast());
+            }
+            if (ref.getCurrent() != null) {
+                rootCommits.add(ref.getCurrent());
+            }
+        }
+        List<String> rootBlobs = new ArrayList<>();
+        for (Index.Entry entry : index().added()) {
+            rootBlobs.add(entry.blobId);
+        }
+        long[] result = GarbageCollector.collect(rootCommits, rootBlobs, pruneNow);
+        System.out.println("Removed " + result[0] + " unreachable objects, reclaimed "
+                + result[1] + " bytes.");
+    }
+
+    private static void changeCurrentBranch(Journal tx, String newBranch) {
         for (String branch : Utils.plainFilenamesIn(CURRENT_BRANCH)) {
-            Utils.join(CURRENT_BRANCH, branch).delete();
+            tx.delete(Utils.join(CURRENT_BRANCH, branch));
         }
-        Utils.writeContents(Utils.join(CURRENT_BRANCH, newBranch), "");
+        tx.write(Utils.join(CURRENT_BRANCH, newBranch), new byte[0]);
     }
     private static void writeBlobToCWD(String shaIdOfBlob) {
         if (shaIdOfBlob != null) {
-            Blob blob = Utils.readObject(Utils.join(BLOBS_DIR, shaIdOfBlob), Blob.class);
+            Blob blob = ObjectStore.readBlob(shaIdOfBlob);
             File checkoutFile = new File(CWD, blob.getFileName());
-            Utils.writeContents(checkoutFile, blob.getFileContent());
+            checkoutFile.getParentFile().mkdirs();
+            blob.writeTo(checkoutFile);
         } else {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw error("File does not exist in that commit.");
         }
     }
 
     /*return the branch's head or last*/
     private static String findCommit(String branchName) {
-        Ref ref = Utils.readObject(Utils.join(REF_DIR, branchName), Ref.class);
+        Ref ref = Ref.read(Utils.join(REF_DIR, branchName));
         if (ref == null) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
-            return null;
+            throw error("No such branch exists.");
         }
 
         if (!(ref.getCurrent() == null)) {
@@ -568,14 +824,11 @@ public class Repository {
 
     private static String findBlobInCommit(String shaIdOfCommit, String fileName) {
         if (shaIdOfCommit != null) {
-            Commit commit = Utils.readObject(Utils.join(COMMITS_DIR, shaIdOfCommit), Commit.class);
-            HashMap<String, String> blobs = commit.getBlobs();
-            return blobs.get(fileName);
+            Commit commit = ObjectStore.readCommit(shaIdOfCommit);
+            return commit.getTree() == null ? null : Tree.find(commit.getTree(), fileName);
 
         }
-        System.out.println("No commit with that id exists.");
-        System.exit(0);
-        return null;
+        throw error("No commit with that id exists.");
     }
 
     private static String dateToString(Date date) {
@@ -584,17 +837,14 @@ public class Repository {
     }
 
     public static void merge(String givenBranch) {
-        if (plainFilenamesIn(STAGING_DIR).size() > 0 || plainFilenamesIn(REMOVAL_DIR).size() > 0 ) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+        if (index().hasStaged()) {
+            throw error("You have uncommitted changes.");
         }
-        if (!plainFilenamesIn(REF_DIR).contains(givenBranch)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+        if (!branches().contains(givenBranch)) {
+            throw error("A branch with that name does not exist.");
         }
         if (plainFilenamesIn(CURRENT_BRANCH).get(0).equals(givenBranch)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw error("Cannot merge a branch with itself.");
         }
 
 
@@ -605,12 +855,15 @@ public class Repository {
 
         //special merge: the split point was not the current branch or the given branch,
         if (splitPoint.equals(givenCommitId)) {
-            System.out.println("Given branch is an ancestor of the current branch.");
-            System.exit(0);
+            throw error("Given branch is an ancestor of the current branch.");
         } else if (splitPoint.equals(currentCommitId)) {
-            checkoutBranch(givenBranch);
+            if (givenBranch.contains("/")) {
+                fastForward(givenCommitId);
+            } else {
+                checkoutBranch(givenBranch);
+            }
             System.out.println("Current branch fast-forwarded.");
-            System.exit(0);
+            return;
         }
         //System.out.println(splitPoint);
         //System.out.println(currentCommitId);
@@ -618,125 +871,176 @@ public class Repository {
         //System.out.println(givenCommitId);
 
 
-        //key is fileName, value is blobId
-        HashMap<String, String> fileInSplit = findBlobsHashMap(splitPoint);
-        HashMap<String, String> fileInCurrent = findBlobsHashMap(currentCommitId);
-        HashMap<String, String> fileInGiven = findBlobsHashMap(givenCommitId);
-
-        HashSet<String> allFiles = new HashSet<>();
-        if (fileInSplit != null) { // if splitPoint is initial, fileInSpit will be null
-            for (String f : fileInSplit.keySet()) {
-                allFiles.add(f);
-            }
-        }
-        if (fileInCurrent != null) {
-            for (String f : fileInCurrent.keySet()) {
-                allFiles.add(f);
+        /* Only files changed since the split point on either side can need
+         * anything done; the tree diffs skip every directory unchanged on
+         * that side.  Key is fileName, value is {blobId in split, blobId now}. */
+        String splitTree = ObjectStore.readCommit(splitPoint).getTree();
+        TreeMap<String, String[]> changedInCurrent =
+                Tree.diff(splitTree, ObjectStore.readCommit(currentCommitId).getTree());
+        TreeMap<String, String[]> changedInGiven =
+                Tree.diff(splitTree, ObjectStore.readCommit(givenCommitId).getTree());
+
+        TreeSet<String> allFiles = new TreeSet<>(changedInCurrent.keySet());
+        allFiles.addAll(changedInGiven.keySet());
+
+        /* Every file is decided on the common fork-join pool, reading and
+         * merging blobs in parallel; nothing is written until all of them
+         * are decided, so a merge that cannot go on leaves no trace. */
+        List<FileMerge> merges = allFiles.parallelStream()
+                .map(fileName -> decideMerge(fileName, changedInCurrent.get(fileName), changedInGiven.get(fileName)))
+                .collect(Collectors.toList());
+        for (FileMerge merge : merges) {
+            if (merge.refused) {
+                throw error("No reason to remove the file.");
             }
         }
-        if (fileInGiven != null) {
-            for (String f : fileInGiven.keySet()) {
-                allFiles.add(f);
-            }
+        boolean conflicted = applyMerges(merges);
+        commit("Merged " + givenBranch + " into " + plainFilenamesIn(CURRENT_BRANCH).get(0) + ".");
+
+        if (conflicted) {
+            System.out.println("Encountered a merge conflict.");
         }
 
-        Boolean conflicted = false;
-        for (String fileName : allFiles) {
-            String blobIdInSplit;
-            String blobIdInCurrent;
-            String blobIdInGiven;
+    }
 
-            if (fileInSplit != null) {
-                blobIdInSplit = fileInSplit.get(fileName);
-            } else {
-                blobIdInSplit = null;
+    /* What merge does to one file. At most one of checkout, content and
+     * remove is set; none is for a file that stays as it is.
+     */
+    private static class FileMerge {
+        final String path;
+        /* blob to write to the working file, staged too if stageCheckout */
+        String checkout;
+        boolean stageCheckout;
+        /* merged content to write to the working file and stage */
+        byte[] content;
+        /* delete the working file and stage its removal */
+        boolean remove;
+        /* the working file to remove was changed, so rm refuses */
+        boolean refused;
+        boolean conflict;
+
+        FileMerge(String path) {
+            this.path = path;
+        }
+    }
+
+    /* Decide the merge of FILENAME from its blob ids in the split point and
+     * now on each side; INCURRENT and INGIVEN are {blobId in split, blobId
+     * now}, or null where that side did not change the file. Only reads,
+     * so it may run on any thread.
+     */
+    private static FileMerge decideMerge(String fileName, String[] inCurrent, String[] inGiven) {
+        FileMerge merge = new FileMerge(fileName);
+        String blobIdInSplit = inCurrent != null ? inCurrent[0] : inGiven[0];
+        String blobIdInCurrent = inCurrent != null ? inCurrent[1] : blobIdInSplit;
+        String blobIdInGiven = inGiven != null ? inGiven[1] : blobIdInSplit;
+        if (blobIdInSplit != null && blobIdInCurrent != null && blobIdInGiven != null) {
+            //the file is in split, current and given, then the file modified
+            if (blobIdInSplit.equals(blobIdInGiven)) {
+                //modified in current,
+                merge.checkout = blobIdInCurrent;
+            } else if (blobIdInSplit.equals(blobIdInCurrent)) {
+                //modified in given, should replace the file to CWD and add it
+                merge.checkout = blobIdInGiven;
+                merge.stageCheckout = true;
+            } else { // both modified
+                if (!blobIdInCurrent.equals(blobIdInGiven)) {
+                    //merge line by line, only overlapping changes conflict
+                    Diff3 merged = Diff3.merge(Diff.ofBlob(blobIdInSplit),
+                            Diff.ofBlob(blobIdInCurrent), Diff.ofBlob(blobIdInGiven));
+                    merge.conflict = merged.conflicts > 0;
+                    merge.content = merged.merged;
+                }
             }
-            if (fileInCurrent != null) {
-                blobIdInCurrent = fileInCurrent.get(fileName);
+        } else if (blobIdInSplit == null) {
+            // the file not in split
+            if (blobIdInCurrent != null && blobIdInGiven == null) {
+                //existed only in current
+                merge.checkout = blobIdInCurrent;
+            } else if (blobIdInGiven != null && blobIdInCurrent == null) {
+                //existed only in given
+                merge.checkout = blobIdInGiven;
+                merge.stageCheckout = true;
             } else {
-                blobIdInCurrent = null;
+                if (!blobIdInCurrent.equals(blobIdInGiven)) {
+                    merge.conflict = true;
+                    merge.content = handleConflict(blobIdInCurrent, blobIdInGiven).getBytes(StandardCharsets.UTF_8);
+                }
             }
-            if (fileInGiven != null) {
-                blobIdInGiven = fileInGiven.get(fileName);
-            } else {
-                blobIdInGiven = null;
+        } else if (blobIdInCurrent == null && blobIdInGiven != null) {
+            //the file in split and given, but not in current
+            if (!blobIdInSplit.equals(blobIdInGiven)) {
+                //given modified; if not, the file remains absent
+                merge.conflict = true;
+                merge.content = handleConflict(blobIdInCurrent, blobIdInGiven).getBytes(StandardCharsets.UTF_8);
             }
-            if (blobIdInSplit != null && blobIdInCurrent != null && blobIdInGiven != null) {
-                //the file is in split, current and given, then the file modified
-                if (blobIdInSplit.equals(blobIdInGiven)) {
-                    //modified in current,
-                    writeBlobToCWD(blobIdInCurrent);
-                } else if (blobIdInSplit.equals(blobIdInCurrent)) {
-                    //modified in given, should replace the file to CWD and add it
-                    writeBlobToCWD(blobIdInGiven);
-                    Blob b = readObject(join(BLOBS_DIR, blobIdInGiven),Blob.class);
-                    writeObject(join(STAGING_DIR, blobIdInGiven), b);
-                } else { // both modified
-                    if (!blobIdInCurrent.equals(blobIdInGiven)) {
-                        conflicted = true;
-                        String newContent = handleConflict(blobIdInCurrent, blobIdInGiven);
-                        writeContents(join(CWD, fileName), newContent);
-                        add(fileName);
-                    }
-                }
-            } else if (blobIdInSplit == null) {
-                // the file not in split
-                if (blobIdInCurrent != null && blobIdInGiven == null) {
-                    //existed only in current
-                    writeBlobToCWD(blobIdInCurrent);
-                } else if (blobIdInGiven != null && blobIdInCurrent == null) {
-                    //existed only in given
-                    writeBlobToCWD(blobIdInGiven);
-                    Blob b = readObject(join(BLOBS_DIR, blobIdInGiven),Blob.class);
-                    writeObject(join(STAGING_DIR, blobIdInGiven), b);
-                } else {
-                    if (!blobIdInCurrent.equals(blobIdInGiven)) {
-                        conflicted = true;
-                        String newContent = handleConflict(blobIdInCurrent, blobIdInGiven);
-                        writeContents(join(CWD, fileName), newContent);
-                        add(fileName);
-                    }
-                }
-            } else if (blobIdInSplit != null && blobIdInCurrent == null && blobIdInGiven != null) {
-                //the file in split and given, but not in current
-                if (blobIdInSplit.equals(blobIdInGiven)) {
-                    //Given not modified, so remain absent
-                } else { //given modified
-                    conflicted = true;
-                    String newContent = handleConflict(blobIdInCurrent, blobIdInGiven);
-                    writeContents(join(CWD, fileName), newContent);
-                    add(fileName);
-                }
-            } else if (blobIdInSplit != null && blobIdInCurrent != null && blobIdInGiven == null) {
-                //the file in split and current, but not in given
-                if (blobIdInSplit.equals(blobIdInCurrent)) {
-                    rm(fileName);
-                } else {
-                    conflicted = true;
-                    String newContent = handleConflict(blobIdInCurrent, blobIdInGiven);
-                    writeContents(join(CWD, fileName), newContent);
-                    add(fileName);
+        } else if (blobIdInCurrent != null && blobIdInGiven == null) {
+            //the file in split and current, but not in given
+            if (blobIdInSplit.equals(blobIdInCurrent)) {
+                //as rm would, refuse to remove a working file that differs from every stored version
+                File file = join(CWD, fileName);
+                if (file.exists()) {
+                    String sha1Code = Blob.hash(file, fileName);
+                    merge.refused = !ObjectStore.hasBlob(sha1Code) && !ObjectStore.hasCommit(sha1Code);
                 }
+                merge.remove = true;
+                merge.checkout = blobIdInCurrent;
+            } else {
+                merge.conflict = true;
+                merge.content = handleConflict(blobIdInCurrent, blobIdInGiven).getBytes(StandardCharsets.UTF_8);
             }
         }
-        commit("Merged " + givenBranch + " into " + plainFilenamesIn(CURRENT_BRANCH).get(0) + ".");
+        return merge;
+    }
 
-        if (conflicted) {
-            System.out.println("Encountered a merge conflict.");
+    /* Apply MERGES, in order of path: working files are written on the
+     * common fork-join pool, then the index is updated and written once.
+     * Returns true iff some file has conflicts.
+     */
+    private static boolean applyMerges(List<FileMerge> merges) {
+        merges.parallelStream().forEach(merge -> {
+            if (merge.remove) {
+                deleteWorkingFile(merge.path);
+            } else if (merge.content != null) {
+                File file = join(CWD, merge.path);
+                file.getParentFile().mkdirs();
+                writeContents(file, merge.content);
+            } else if (merge.checkout != null) {
+                writeBlobToCWD(merge.checkout);
+            }
+        });
+
+        Index index = index();
+        List<String> toAdd = new ArrayList<>();
+        boolean conflicted = false;
+        for (FileMerge merge : merges) {
+            conflicted |= merge.conflict;
+            if (merge.remove) {
+                index.remove(merge.path, merge.checkout);
+            } else if (merge.content != null) {
+                toAdd.add(merge.path);
+            } else if (merge.stageCheckout) {
+                index.add(merge.path, merge.checkout, join(CWD, merge.path));
+            }
         }
-
+        if (toAdd.isEmpty()) {
+            index.write();
+        } else {
+            add(toAdd);
+        }
+        return conflicted;
     }
 
     private static String handleConflict(String blobIdInCurrent, String blobIdInGiven) {
         String mergedContent, contentInCurrent, contentInGiven;
         if (blobIdInCurrent != null) {
-            contentInCurrent = readObject(join(BLOBS_DIR, blobIdInCurrent), Blob.class).getFileContent();
+            contentInCurrent = ObjectStore.readBlob(blobIdInCurrent).getFileContent();
         } else {
             contentInCurrent = "";
         }
 
         if (blobIdInGiven != null) {
-            contentInGiven = readObject(join(BLOBS_DIR, blobIdInGiven), Blob.class).getFileContent();
+            contentInGiven = ObjectStore.readBlob(blobIdInGiven).getFileContent();
         } else {
             contentInGiven = "";
         }
@@ -748,89 +1052,39 @@ public class Repository {
     }
 
     private static void checkUntracked(String currentCommit, String givenCommit) {
-        Set<String> filesInCurrent;
-        Set<String> filesInGiven ;
-        if (findBlobsHashMap(currentCommit) != null) {
-            filesInCurrent = findBlobsHashMap(currentCommit).keySet();
-        } else {
-            filesInCurrent = null;
-        }
-        if (findBlobsHashMap(givenCommit) != null) {
-            filesInGiven = findBlobsHashMap(givenCommit).keySet();
-        } else {
+        HashMap<String, String> blobsInCurrent = findBlobsHashMap(currentCommit);
+        HashMap<String, String> blobsInGiven = findBlobsHashMap(givenCommit);
+        Set<String> filesInCurrent = blobsInCurrent == null ? null : blobsInCurrent.keySet();
+        if (blobsInGiven == null) {
             return;
         }
+        Set<String> filesInGiven = blobsInGiven.keySet();
 
-        for (String file : plainFilenamesIn(CWD)) {
+        for (String file : WorkingTree.scan().keySet()) {
             if (filesInCurrent == null || !filesInCurrent.contains(file)) {
                 if (filesInGiven.contains(file)) {
-                    System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                    System.exit(0);
+                    throw error("There is an untracked file in the way; delete it, or add and commit it first.");
                 }
             }
         }
     }
 
 
+    /* Every file of commit COMMITID, name to blob id, or null for the initial commit */
     private static HashMap<String, String> findBlobsHashMap(String commitId) {
-        Commit commit = readObject(join(COMMITS_DIR, commitId), Commit.class);
-        return commit.getBlobs();
+        Commit commit = ObjectStore.readCommit(commitId);
+        return commit.getTree() == null ? null : Tree.files(commit.getTree());
     }
 
 
 
+    /* The split point is the latest common ancestor of the two branch heads,
+     * found in the commit-graph without reading any commit, see CommitGraph.mergeBase
+     */
     private static String splitPoint(String givenBranch) {
         String currentBranch = plainFilenamesIn(CURRENT_BRANCH).get(0);
         String lastCommitIdInCurrent = findCommit(currentBranch);
         String lastCommitIdInGiven = findCommit(givenBranch);
-
-        HashMap<String, Integer> parentsOfCurrent = new HashMap<>();
-        HashMap<String, Integer> parentsOfGiven = new HashMap<>();
-        depthFirstSearch(givenBranch, lastCommitIdInCurrent, parentsOfCurrent, 0);
-        depthFirstSearch(givenBranch, lastCommitIdInGiven, parentsOfGiven, 0);
-
-
-
-        String splitPoint = null;
-        int minDepth = Integer.MAX_VALUE;
-        for (String c : parentsOfCurrent.keySet()) {
-            if (parentsOfGiven.get(c) != null ) {
-                if (parentsOfGiven.get(c) < minDepth) {
-                    splitPoint = c;
-                    minDepth = parentsOfGiven.get(c);
-                }
-            }
-        }
-        return splitPoint;
-    }
-
-    private static void depthFirstSearch(String b, String commitId, HashMap<String, Integer> predecessors, int depth) {
-        Commit commit = readObject(join(COMMITS_DIR, commitId), Commit.class);
-        String xParent = commit.getxParent();
-        String yParent = commit.getyParent();
-        if (predecessors.get(commitId) != null && depth < predecessors.get(commitId)) {
-            //如果你已经是爷爷了，就不能再当孙子了(在两个分支合并后的节点，向上找父节点时会出现这种情况)
-            return;
-        }
-        predecessors.put(commitId, depth);
-        /*
-        if (b.equals("B2")) {
-            System.out.println(commit.getMessage() + ":");
-            System.out.println(depth);
-            System.out.println(commit.getxParent() + ":");
-            System.out.println(commit.getyParent() + ":");
-        }
-        */
-
-        if (commit.getMessage().equals("initial commit")) {
-            return;
-        } else {
-            if (xParent != null) {
-                depthFirstSearch(b, xParent, predecessors, depth + 1);
-            }
-            if (yParent != null) {
-                depthFirstSearch(b,yParent, predecessors, depth + 1);
-            }
-        }
+        return CommitGraph.mergeBase(lastCommitIdInCurrent, lastCommitIdInGiven);
     }
 }
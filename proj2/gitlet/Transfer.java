@@ -0,0 +1,241 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** What one repository sends another so that it has some commits, and
+ *  the pack stream it is sent as (see Remote).
+ *
+ *  The commits to send are those reachable from the commits wanted but
+ *  not from any commit both sides have (the "common" commits).  They are
+ *  found by one walk over the commit graph, largest corrected date first
+ *  as in Log, painting what common commits reach: a commit is always
+ *  popped after its descendants, so it is painted before it is popped,
+ *  and the walk stops once only painted commits are queued.  It visits
+ *  the new commits and the edge of the common ones, never the whole
+ *  history.
+ *
+ *  Only the objects the receiver lacks are sent.  Each new commit's tree
+ *  is walked against the trees of its parents, which the receiver has or
+ *  is sent too: an entry that is the same object at the same path in a
+ *  parent is skipped without looking inside, and a changed file sends
+ *  only the chunks the parent's version of it does not have.
+ *
+ *  Stream: magic ("GSTR"), object count (int), then for each object its
+ *  type byte, raw id (20 bytes), length (int) and bytes as the object
+ *  store holds them.  Chunks come first, then blobs, trees and commits,
+ *  parents before children.
+ */
+class Transfer {
+
+    static final int MAGIC = 0x47535452; // "GSTR"
+
+    private static final int RAW_LENGTH = UID_LENGTH / 2;
+
+    private final Set<String> commits = new LinkedHashSet<>();
+    private final Set<String> trees = new LinkedHashSet<>();
+    private final Set<String> blobs = new LinkedHashSet<>();
+    private final Set<String> chunks = new LinkedHashSet<>();
+
+    /** Commits reachable from WANTS and from no commit of COMMONS, parents
+     *  before children.  Every id must be in this repository's commit
+     *  graph. */
+    static List<String> missingCommits(Collection<String> wants, Collection<String> commons) {
+        PriorityQueue<Integer> queue = new PriorityQueue<>((p, q) -> {
+            int cmp = Long.compare(CommitGraph.correctedDate(q), CommitGraph.correctedDate(p));
+            return cmp != 0 ? cmp : Integer.compare(q, p);
+        });
+        BitSet seen = new BitSet();
+        BitSet common = new BitSet();
+        int interesting = 0;
+        for (String id : commons) {
+            int pos = CommitGraph.find(id);
+            if (pos >= 0 && !seen.get(pos)) {
+                seen.set(pos);
+                common.set(pos);
+                queue.add(pos);
+            }
+        }
+        for (String id : wants) {
+            int pos = CommitGraph.find(id);
+            if (pos >= 0 && !seen.get(pos)) {
+                seen.set(pos);
+                queue.add(pos);
+                interesting += 1;
+            }
+        }
+        List<String> result = new ArrayList<>();
+        while (interesting > 0) {
+            int pos = queue.poll();
+            boolean painted = common.get(pos);
+            if (!painted) {
+                interesting -= 1;
+                result.add(CommitGraph.idAt(pos));
+            }
+            for (int parent : new int[] {CommitGraph.firstParent(pos), CommitGraph.secondParent(pos)}) {
+                if (parent < 0) {
+                    continue;
+                }
+                if (!seen.get(parent)) {
+                    seen.set(parent);
+                    queue.add(parent);
+                    if (painted) {
+                        common.set(parent);
+                    } else {
+                        interesting += 1;
+                    }
+                } else if (painted && !common.get(parent)) {
+                    /* Queued as new, but a common commit reaches it. */
+                    common.set(parent);
+                    interesting -= 1;
+                }
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /** Write COMMITS, parents before children, and the objects they need
+     *  that their parents do not have to OUT as a pack stream.  Returns
+     *  the number of objects written. */
+    static int send(List<String> commits, DataOutputStream out) throws IOException {
+        Transfer transfer = new Transfer();
+        for (String id : commits) {
+            transfer.addCommit(id);
+        }
+        out.writeInt(MAGIC);
+        out.writeInt(transfer.chunks.size() + transfer.blobs.size() + transfer.trees.size()
+                + transfer.commits.size());
+        transfer.write(ObjectStore.CHUNK, transfer.chunks, out);
+        transfer.write(ObjectStore.BLOB, transfer.blobs, out);
+        transfer.write(ObjectStore.TREE, transfer.trees, out);
+        transfer.write(ObjectStore.COMMIT, transfer.commits, out);
+        return transfer.commits.size() + transfer.trees.size() + transfer.blobs.size()
+                + transfer.chunks.size();
+    }
+
+    /** Read a pack stream from IN into the object store and add its
+     *  commits to the commit graph and the message index.  Returns the
+     *  ids of the commits, parents before children. */
+    static List<String> receive(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw error("Corrupt pack stream.");
+        }
+        int count = in.readInt();
+        List<String> ids = new ArrayList<>(count);
+        byte[] types = new byte[count];
+        List<byte[]> payloads = new ArrayList<>(count);
+        List<String> received = new ArrayList<>();
+        byte[] raw = new byte[RAW_LENGTH];
+        for (int i = 0; i < count; i += 1) {
+            types[i] = in.readByte();
+            in.readFully(raw);
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            ids.add(toHexId(raw, 0));
+            payloads.add(payload);
+            if (types[i] == ObjectStore.COMMIT) {
+                received.add(ids.get(i));
+            }
+        }
+        ObjectStore.writeAll(ids, types, payloads::get);
+
+        if (received.size() > CommitGraph.size()) {
+            /* Most of the history is new, as in a clone: one rebuild is
+             * cheaper than as many appends. */
+            CommitGraph.rebuild();
+            MessageIndex.clear();
+        } else {
+            for (String id : received) {
+                Commit commit = ObjectStore.readCommit(id);
+                CommitGraph.add(id, commit);
+                MessageIndex.add(id, commit.getMessage());
+            }
+        }
+        return received;
+    }
+
+    private void addCommit(String id) {
+        if (!commits.add(id)) {
+            return;
+        }
+        Commit commit = ObjectStore.readCommit(id);
+        if (commit.getTree() == null) {
+            return;
+        }
+        List<String> bases = new ArrayList<>(2);
+        for (String parent : new String[] {commit.getxParent(), commit.getyParent()}) {
+            if (parent != null && ObjectStore.readCommit(parent).getTree() != null) {
+                bases.add(ObjectStore.readCommit(parent).getTree());
+            }
+        }
+        addTree(commit.getTree(), bases);
+    }
+
+    /** Add tree ID and what is below it, except what is the same object
+     *  at the same path below one of the trees BASES. */
+    private void addTree(String id, List<String> bases) {
+        if (bases.contains(id) || !trees.add(id)) {
+            return;
+        }
+        List<Tree> baseTrees = new ArrayList<>(bases.size());
+        for (String base : bases) {
+            baseTrees.add(Tree.read(base));
+        }
+        for (Tree.Entry entry : Tree.read(id).entries()) {
+            List<String> same = new ArrayList<>(baseTrees.size());
+            for (Tree base : baseTrees) {
+                Tree.Entry old = base.get(entry.name);
+                if (old != null && old.kind == entry.kind) {
+                    same.add(old.id);
+                }
+            }
+            if (entry.kind == Tree.TREE) {
+                addTree(entry.id, same);
+            } else {
+                addBlob(entry.id, same);
+            }
+        }
+    }
+
+    /** Add blob ID and its chunks, except the chunks of the blobs BASES. */
+    private void addBlob(String id, List<String> bases) {
+        if (bases.contains(id) || !blobs.add(id)) {
+            return;
+        }
+        Set<String> had = new HashSet<>();
+        for (String base : bases) {
+            had.addAll(ObjectStore.readBlob(base).getChunks());
+        }
+        for (String chunk : ObjectStore.readBlob(id).getChunks()) {
+            if (!had.contains(chunk)) {
+                chunks.add(chunk);
+            }
+        }
+    }
+
+    private void write(byte type, Set<String> ids, DataOutputStream out) throws IOException {
+        for (String id : ids) {
+            byte[] bytes = ObjectStore.readBytes(type, id);
+            if (bytes == null) {
+                throw error("Missing object %s.", id);
+            }
+            out.writeByte(type);
+            out.write(toRawId(id));
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** A directory snapshot: the files and sub directories of one directory,
+ *  by name.  A file entry names a Blob, a directory entry names another
+ *  Tree, and a Commit names the Tree of the whole working directory.
+ *
+ *  Trees are content addressed: the id of a tree is the sha1 of its
+ *  encoding, so a directory that did not change between two commits is the
+ *  same object in both.  A commit only writes new trees for the directories
+ *  on the paths of the files it changed (see update), and two snapshots
+ *  are compared without looking inside the sub directories they share
+ *  (see diff).
+ *
+ *  Encoding: tag 'T', version, entry count (varint), then the entries
+ *  sorted by name, each a kind byte (BLOB or TREE), the name (varint
+ *  length, UTF-8) and the raw id.
+ */
+class Tree {
+
+    static final byte TAG = 'T';
+    static final byte VERSION = 1;
+
+    static final byte BLOB = 0;
+    static final byte TREE = 1;
+
+    /** One file or sub directory. */
+    static class Entry {
+        final String name;
+        final byte kind;
+        final String id;
+
+        Entry(String name, byte kind, String id) {
+            this.name = name;
+            this.kind = kind;
+            this.id = id;
+        }
+    }
+
+    /** The entries by name. */
+    private final TreeMap<String, Entry> entries;
+
+    private Tree(TreeMap<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /** The entries of this tree, sorted by name. */
+    Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    /** The entry called NAME, or null. */
+    Entry get(String name) {
+        return entries.get(name);
+    }
+
+    /** The tree named ID. */
+    static Tree read(String id) {
+        return ObjectStore.readTree(id);
+    }
+
+    /** The tree encoded in BYTES. */
+    static Tree decode(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        Codec.readHeader(in, TAG, VERSION, "tree");
+        int count = (int) Codec.readVarint(in);
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        for (int i = 0; i < count; i += 1) {
+            byte kind = in.get();
+            String name = Codec.readString(in);
+            entries.put(name, new Entry(name, kind, Codec.readId(in)));
+        }
+        return new Tree(entries);
+    }
+
+    /** Store this tree and return its id. */
+    private String write() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(TAG);
+        out.write(VERSION);
+        Codec.writeVarint(out, entries.size());
+        for (Entry entry : entries.values()) {
+            out.write(entry.kind);
+            Codec.writeString(out, entry.name);
+            Codec.writeId(out, entry.id);
+        }
+        byte[] bytes = out.toByteArray();
+        String id = Utils.sha1(bytes);
+        ObjectStore.writeTree(id, bytes);
+        return id;
+    }
+
+    /** Return the id of the tree holding FILES, path to blob id. */
+    static String build(Map<String, String> files) {
+        return update(null, new HashMap<>(files));
+    }
+
+    /** Return the id of the tree that is tree ROOT (null for an empty tree)
+     *  with the CHANGES applied: each path is set to the blob id it maps
+     *  to, or removed if that is null.  Only the trees on the changed paths
+     *  are read and written again. */
+    static String update(String root, Map<String, String> changes) {
+        String id = updateDir(root, changes);
+        return id != null ? id : new Tree(new TreeMap<>()).write();
+    }
+
+    /** As update, but returns null for a directory left empty. */
+    private static String updateDir(String id, Map<String, String> changes) {
+        TreeMap<String, Entry> entries = id == null ? new TreeMap<>() : new TreeMap<>(read(id).entries);
+        TreeMap<String, Map<String, String>> below = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                below.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                entries.remove(path);
+            } else {
+                entries.put(path, new Entry(path, BLOB, change.getValue()));
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> dir : below.entrySet()) {
+            Entry old = entries.get(dir.getKey());
+            String sub = updateDir(old != null && old.kind == TREE ? old.id : null, dir.getValue());
+            if (sub == null) {
+                entries.remove(dir.getKey());
+            } else {
+                entries.put(dir.getKey(), new Entry(dir.getKey(), TREE, sub));
+            }
+        }
+        return entries.isEmpty() ? null : new Tree(entries).write();
+    }
+
+    /** Every file below tree ID, path to blob id. */
+    static HashMap<String, String> files(String id) {
+        HashMap<String, String> result = new HashMap<>();
+        collect(id, "", result);
+        return result;
+    }
+
+    private static void collect(String id, String prefix, Map<String, String> result) {
+        for (Entry entry : read(id).entries.values()) {
+            if (entry.kind == TREE) {
+                collect(entry.id, prefix + entry.name + "/", result);
+            } else {
+                result.put(prefix + entry.name, entry.id);
+            }
+        }
+    }
+
+    /** The id of the file or directory at PATH in tree ID, or null if
+     *  there is none.  Only the trees along PATH are read. */
+    static String idOf(String id, String path) {
+        String[] names = path.split("/");
+        for (int i = 0; i < names.length && id != null; i += 1) {
+            Entry entry = read(id).entries.get(names[i]);
+            if (entry == null || (entry.kind == BLOB && i < names.length - 1)) {
+                return null;
+            }
+            id = entry.id;
+        }
+        return id;
+    }
+
+    /** The blob id of file PATH in tree ID, or null if there is no such
+     *  file.  Only the trees along PATH are read. */
+    static String find(String id, String path) {
+        String[] names = path.split("/");
+        for (int i = 0; i < names.length && id != null; i += 1) {
+            Entry entry = read(id).entries.get(names[i]);
+            if (entry == null || (entry.kind == TREE) == (i == names.length - 1)) {
+                return null;
+            }
+            id = entry.id;
+        }
+        return id;
+    }
+
+    /** The files that differ between trees A and B (null for empty trees),
+     *  as path to {blob id in A, blob id in B}, null where the file is
+     *  missing.  Sub directories with the same id in both are skipped. */
+    static TreeMap<String, String[]> diff(String a, String b) {
+        TreeMap<String, String[]> result = new TreeMap<>();
+        diff(a, b, "", result);
+        return result;
+    }
+
+    private static void diff(String a, String b, String prefix, TreeMap<String, String[]> result) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        TreeMap<String, Entry> left = a == null ? new TreeMap<>() : read(a).entries;
+        TreeMap<String, Entry> right = b == null ? new TreeMap<>() : read(b).entries;
+        TreeSet<String> names = new TreeSet<>(left.keySet());
+        names.addAll(right.keySet());
+        for (String name : names) {
+            Entry x = left.get(name);
+            Entry y = right.get(name);
+            if (x != null && y != null && x.kind == y.kind && x.id.equals(y.id)) {
+                continue;
+            }
+            String path = prefix + name;
+            String xTree = x != null && x.kind == TREE ? x.id : null;
+            String yTree = y != null && y.kind == TREE ? y.id : null;
+            if (xTree != null || yTree != null) {
+                diff(xTree, yTree, path + "/", result);
+            }
+            String xBlob = x != null && x.kind == BLOB ? x.id : null;
+            String yBlob = y != null && y.kind == BLOB ? y.id : null;
+            if (xBlob != null || yBlob != null) {
+                result.put(path, new String[] {xBlob, yBlob});
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -15,7 +16,6 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -34,35 +34,85 @@ class Utils {
     /* SHA-1 HASH VALUES. */
 
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
-     *  be any mixture of byte arrays and Strings. */
+     *  be any mixture of byte arrays and Strings.  In a SHA-256
+     *  repository this is the id SHA-256 gives instead (see ObjectFormat). */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        MessageDigest md = digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            return result.toString();
+        }
+        return toHexId(md.digest(), 0);
+    }
+
+    /** Returns the id of BYTES[OFFSET .. OFFSET + LENGTH), without copying
+     *  them out first. */
+    static String sha1(byte[] bytes, int offset, int length) {
+        MessageDigest md = digest();
+        md.update(bytes, offset, length);
+        return toHexId(md.digest(), 0);
+    }
+
+    /** The digest of this thread, reset and ready for a new id.  Digests
+     *  are expensive to create, so each thread keeps one; the result of
+     *  digest() must be finished before the next call on the same thread. */
+    static MessageDigest digest() {
+        MessageDigest md = DIGEST.get();
+        if (md == null || !md.getAlgorithm().equals(ObjectFormat.algorithm())) {
+            md = newDigest();
+            DIGEST.set(md);
+        }
+        md.reset();
+        return md;
+    }
+
+    /** A digest of its own, for an id hashed while digest() is used for
+     *  others, as a blob's is while its chunks are stored. */
+    static MessageDigest newDigest() {
+        String algorithm = ObjectFormat.algorithm();
+        try {
+            return MessageDigest.getInstance(algorithm);
         } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
+            throw new IllegalArgumentException("System does not support " + algorithm);
         }
     }
 
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<>();
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the 20 raw bytes denoted by the hexadecimal UID ID. */
+    static byte[] toRawId(String id) {
+        byte[] raw = new byte[UID_LENGTH / 2];
+        for (int i = 0; i < raw.length; i += 1) {
+            raw[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return raw;
+    }
+
+    /** Returns the hexadecimal UID denoted by the raw bytes RAW[OFFSET ..]. */
+    static String toHexId(byte[] raw, int offset) {
+        char[] result = new char[UID_LENGTH];
+        for (int i = 0; i < UID_LENGTH / 2; i += 1) {
+            int b = raw[offset + i] & 0xff;
+            result[2 * i] = HEX_DIGITS[b >>> 4];
+            result[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Digits of hexadecimal numerals, by value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -221,6 +271,22 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
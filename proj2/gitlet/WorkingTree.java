@@ -0,0 +1,184 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The status engine: compares the working directory with the index and
+ *  the current commit.
+ *
+ *  The working directory is walked once, and the walk already yields the
+ *  stat data of every file.  A file is only re-hashed when its size, mtime
+ *  or inode differ from its index entry (or the entry is racy, see Index);
+ *  otherwise the blob id cached in the index is used.  Re-hashed tracked
+ *  files get their entry refreshed, so the next status is fast again.
+ */
+class WorkingTree {
+
+    /** Result of a scan.  Both maps are sorted by path. */
+    static class Status {
+        /** Modifications not staged for commit: path to "modified" or "deleted". */
+        final TreeMap<String, String> modified = new TreeMap<>();
+        /** Files that are neither staged for addition nor tracked. */
+        final List<String> untracked = new ArrayList<>();
+        /** True iff entries of the index were refreshed and it should be written. */
+        boolean indexChanged;
+    }
+
+    /** Stat data of every plain file below the working directory, by path
+     *  relative to it, skipping .gitlet. */
+    static TreeMap<String, BasicFileAttributes> scan() {
+        TreeMap<String, BasicFileAttributes> files = new TreeMap<>();
+        Path root = Repository.CWD.toPath();
+        Path gitlet = Repository.GITLET_DIR.toPath();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return dir.equals(gitlet) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        files.put(root.relativize(file).toString().replace(File.separatorChar, '/'), attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return files;
+    }
+
+    /** Compare the working directory with INDEX and HEAD, the blob map of the
+     *  current commit (null for the initial commit). */
+    static Status status(Map<String, String> head, Index index) {
+        Status result = new Status();
+        TreeMap<String, BasicFileAttributes> files = scan();
+
+        for (Map.Entry<String, BasicFileAttributes> file : files.entrySet()) {
+            String path = file.getKey();
+            String headId = head == null ? null : head.get(path);
+            Index.Entry entry = index.get(path);
+            boolean staged = entry != null && entry.state == Index.ADDED;
+            if (!staged && headId == null) {
+                result.untracked.add(path);
+                continue;
+            }
+            if (entry != null && entry.state == Index.REMOVED) {
+                /* Staged for removal, then created again. */
+                result.untracked.add(path);
+                continue;
+            }
+            String workingId = blobId(path, file.getValue(), entry, index, result);
+            if (staged ? !workingId.equals(entry.blobId) : !workingId.equals(headId)) {
+                result.modified.put(path, "modified");
+            }
+        }
+
+        if (head != null) {
+            for (String path : head.keySet()) {
+                if (!files.containsKey(path) && !index.is(path, Index.REMOVED)) {
+                    result.modified.put(path, "deleted");
+                }
+            }
+        }
+        for (Index.Entry entry : index.added()) {
+            if (!files.containsKey(entry.path)) {
+                result.modified.put(entry.path, "deleted");
+            }
+        }
+        return result;
+    }
+
+    /** Make the working directory hold TARGET, the files of the commit
+     *  checked out, path to blob id, where it held a commit differing from
+     *  it in CHANGED, path to {blob id before, blob id in TARGET}.  A file is
+     *  only written if it is in CHANGED or its content, known from the index
+     *  while its stat data matches, is not its target version; files only
+     *  the old commit had are deleted.  Staged changes are dropped, and
+     *  INDEX records the stat data of every file of TARGET.  Returns the
+     *  number of files written or deleted. */
+    static int checkout(Map<String, String> target, Map<String, String[]> changed, Index index) {
+        for (Index.Entry entry : index.added()) {
+            index.unstage(entry.path);
+        }
+        for (Index.Entry entry : index.removed()) {
+            index.unstage(entry.path);
+        }
+        int touched = 0;
+        for (Map.Entry<String, String[]> change : changed.entrySet()) {
+            if (change.getValue()[1] == null) {
+                Repository.deleteWorkingFile(change.getKey());
+                index.unstage(change.getKey());
+                touched += 1;
+            }
+        }
+        TreeMap<String, BasicFileAttributes> files = scan();
+        for (Map.Entry<String, String> file : target.entrySet()) {
+            String path = file.getKey();
+            String blobId = file.getValue();
+            BasicFileAttributes attrs = files.get(path);
+            if (attrs != null && !changed.containsKey(path)) {
+                Index.Entry entry = index.get(path);
+                String workingId = entry != null && index.isUpToDate(entry, attrs)
+                        ? entry.blobId : Blob.hash(Utils.join(Repository.CWD, path), path);
+                if (workingId.equals(blobId)) {
+                    if (entry == null || !entry.blobId.equals(blobId) || !entry.matches(attrs)) {
+                        index.track(path, blobId, attrs, Utils.join(Repository.CWD, path).canExecute());
+                    }
+                    continue;
+                }
+            }
+            File out = Utils.join(Repository.CWD, path);
+            out.getParentFile().mkdirs();
+            ObjectStore.readBlob(blobId).writeTo(out);
+            index.track(path, blobId, stat(out), out.canExecute());
+            touched += 1;
+        }
+        return touched;
+    }
+
+    /** The blob id of working file PATH with stat data ATTRS, taken from its
+     *  index ENTRY when that is up to date and computed otherwise.  Tracked,
+     *  unstaged files get their entry refreshed. */
+    private static String blobId(String path, BasicFileAttributes attrs, Index.Entry entry,
+                                 Index index, Status result) {
+        if (entry != null && index.isUpToDate(entry, attrs)) {
+            return entry.blobId;
+        }
+        File file = Utils.join(Repository.CWD, path);
+        String id = Blob.hash(file, path);
+        if (entry == null || entry.state == Index.TRACKED) {
+            index.track(path, id, attrs, file.canExecute());
+            result.indexChanged = true;
+        }
+        return id;
+    }
+
+    /** Stat data of FILE. */
+    static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** A number identifying the file behind ATTRS: derived from its device
+     *  and inode number where the platform has them, 0 otherwise. */
+    static long inode(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? 0 : key.hashCode();
+    }
+}
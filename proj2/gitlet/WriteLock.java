@@ -0,0 +1,170 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+
+import static gitlet.Utils.*;
+
+/** The lock that lets several gitlet processes share one repository.
+ *
+ *  Commands that change refs, the index or the object store run holding
+ *  an exclusive FileChannel lock on .gitlet/lock, so they run one at a
+ *  time; the lock is taken in Main.run and waited for if another process
+ *  holds it.  The operating system drops it when its process dies.
+ *
+ *  log, status, find and the other commands that only look never take
+ *  it.  Objects are never changed once written and every file is replaced
+ *  whole (see Journal), but one transaction replaces several files, so a
+ *  reader could see a branch moved and the index not yet cleared.  The
+ *  first 8 bytes of the lock file are a counter, odd while a writer is
+ *  replacing files: a reader reads what it needs from refs and the index
+ *  in snapshot(), and reads again if the counter was odd or moved.
+ *
+ *  The lock is reentrant within a process, as a command may update
+ *  through several transactions.  The channel to the lock file stays open
+ *  for the life of the process: closing any channel to it would drop the
+ *  lock of the whole process.
+ */
+class WriteLock {
+
+    static final File LOCK_FILE = join(Repository.GITLET_DIR, "lock");
+
+    private static FileChannel channel;
+    private static FileLock lock;
+    /** How many times this process took the lock without releasing it. */
+    private static int depth;
+
+    /** Take the lock, waiting for another process holding it. */
+    static synchronized void acquire() {
+        if (depth == 0) {
+            try {
+                lock = channel().lock();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            depth = 1;
+            recover();
+            return;
+        }
+        depth += 1;
+    }
+
+    /** Take the lock if no other process holds it.  Returns whether it
+     *  was taken; if so, it must be released. */
+    static synchronized boolean tryAcquire() {
+        if (depth == 0) {
+            try {
+                lock = channel().tryLock();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (lock == null) {
+                return false;
+            }
+            depth = 1;
+            recover();
+            return true;
+        }
+        depth += 1;
+        return true;
+    }
+
+    /** Undo one acquire(), releasing the lock after the last. */
+    static synchronized void release() {
+        depth -= 1;
+        if (depth == 0) {
+            try {
+                lock.release();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            lock = null;
+        }
+    }
+
+    /** Note that files readers look at are about to be replaced.  Takes
+     *  the lock until endUpdate(). */
+    static void beginUpdate() {
+        acquire();
+        setCounter(counter() + 1);
+    }
+
+    /** Note that the files of beginUpdate() are all replaced. */
+    static void endUpdate() {
+        setCounter(counter() + 1);
+        release();
+    }
+
+    /** The result of READ, which reads refs or the index, as of a moment
+     *  no writer was replacing files. */
+    static <T> T snapshot(Supplier<T> read) {
+        synchronized (WriteLock.class) {
+            if (depth > 0) {
+                return read.get();
+            }
+        }
+        while (true) {
+            long before = counter();
+            if (before % 2 != 0) {
+                /* Wait for the writer; if it died, acquire() finishes
+                 * its transaction. */
+                acquire();
+                release();
+                continue;
+            }
+            T result;
+            try {
+                result = read.get();
+            } catch (RuntimeException excp) {
+                /* A file read in the middle of an update may be missing. */
+                if (counter() == before) {
+                    throw excp;
+                }
+                continue;
+            }
+            if (counter() == before) {
+                return result;
+            }
+        }
+    }
+
+    /** Finish the transaction of a process that died holding the lock
+     *  while replacing files, which leaves the counter odd. */
+    private static void recover() {
+        if (counter() % 2 != 0) {
+            Journal.recover();
+            setCounter(counter() + 1);
+        }
+    }
+
+    private static long counter() {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        try {
+            channel().read(buffer, 0);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return buffer.position() == 8 ? buffer.getLong(0) : 0;
+    }
+
+    private static void setCounter(long value) {
+        try {
+            channel().write(ByteBuffer.allocate(8).putLong(0, value), 0);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static synchronized FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return channel;
+    }
+}
@@ -0,0 +1,116 @@
+#!/bin/bash
+# Starts "gitlet daemon" in a new repository and checks that commands
+# run through it, by "java gitlet.Main" forwarding them or by
+# gitlet-client.py, print the same output and exit with the same status
+# as when run in-process (-Dgitlet.daemon=false).  Also checks
+# "daemon stop" and the fallback to running in-process when no daemon
+# answers.  The daemon is killed on exit whatever happens.
+#
+# Usage: daemon.sh [PROGDIR]
+#   PROGDIR holds the compiled gitlet classes (default: the directory
+#   above this one).  Prints the checks that failed and exits with 1 if
+#   there were any.
+
+here=$(cd "$(dirname "$0")" && pwd)
+export CLASSPATH=$(cd "${1:-$here/..}" && pwd)
+client="$here/../gitlet-client.py"
+work=$(mktemp -d)
+daemon=
+trap '[ -n "$daemon" ] && kill $daemon 2> /dev/null; rm -rf "$work"' EXIT
+cd "$work" || exit 1
+
+failures=0
+
+# check DESCRIPTION EXPECTED ACTUAL
+check() {
+    if [ "$2" != "$3" ]; then
+        printf 'FAILED: %s\nexpected:\n%s\ngot:\n%s\n' "$1" "$2" "$3"
+        failures=$((failures + 1))
+    fi
+}
+
+# Run gitlet with ARGS in-process, forwarded by Main and through the
+# client, setting LOCAL, FORWARDED and CLIENT to "exit STATUS" followed by
+# the output.
+run3() {
+    LOCAL=$(java -ea -Dgitlet.daemon=false gitlet.Main "$@" 2>&1; echo "exit $?")
+    FORWARDED=$(java -ea gitlet.Main "$@" 2>&1; echo "exit $?")
+    CLIENT=$("$client" "$@" 2>&1; echo "exit $?")
+}
+
+# Wait up to 10 seconds for COMMAND to succeed.
+wait_for() {
+    for i in $(seq 100); do
+        if eval "$1"; then
+            return 0
+        fi
+        sleep 0.1
+    done
+    return 1
+}
+
+inproc() {
+    java -ea -Dgitlet.daemon=false gitlet.Main "$@" 2>&1
+}
+
+inproc init > /dev/null
+echo "This is a wug." > wug.txt
+inproc add wug.txt
+inproc commit "added wug"
+
+check "daemon stop without a daemon" "No gitlet daemon is running." "$(inproc daemon stop)"
+
+java -ea gitlet.Main daemon > daemon.log 2>&1 &
+daemon=$!
+if ! wait_for '[ -S .gitlet/daemon.sock ]'; then
+    echo "FAILED: the daemon did not start:"
+    cat daemon.log
+    exit 1
+fi
+
+check "second daemon" "A gitlet daemon is already running." "$("$client" daemon)"
+
+for command in "log" "status" "find added\ wug" "checkout nosuch" "global-log"; do
+    eval "run3 $command"
+    check "forwarded $command" "$LOCAL" "$FORWARDED"
+    check "$command through the client" "$LOCAL" "$CLIENT"
+done
+
+# A command that fails with an exception: only the status is compared,
+# as the stack traces differ.
+run3 reset
+check "status of a failing forwarded command" "exit 1" "$(echo "$FORWARDED" | tail -1)"
+check "status of a failing command through the client" "exit 1" "$(echo "$CLIENT" | tail -1)"
+check "status of a failing command" "exit 1" "$(echo "$LOCAL" | tail -1)"
+
+# Commits made through the daemon and in-process are seen by both.
+echo "This is not a wug." > notwug.txt
+"$client" add notwug.txt
+"$client" commit "added notwug"
+inproc rm wug.txt
+inproc commit "removed wug"
+check "commits seen by the daemon" "4" "$("$client" log | grep -c '^commit')"
+check "commits seen in-process" "4" "$(inproc log | grep -c '^commit')"
+
+check "daemon stop" "Daemon stopped." "$("$client" daemon stop)"
+if ! wait_for '! kill -0 $daemon 2> /dev/null'; then
+    echo "FAILED: the daemon did not exit"
+    failures=$((failures + 1))
+fi
+daemon=
+check "socket after daemon stop" "" "$(ls .gitlet/daemon.sock 2> /dev/null)"
+
+# A socket left behind by a daemon that was killed is not served.
+touch .gitlet/daemon.sock
+run3 checkout nosuch
+check "checkout with a stale socket" "No such branch exists.
+exit 0" "$LOCAL"
+check "forwarded with a stale socket" "$LOCAL" "$FORWARDED"
+check "client with a stale socket" "$LOCAL" "$CLIENT"
+check "daemon stop with a stale socket" "No gitlet daemon is running." "$("$client" daemon stop)"
+
+if [ $failures -ne 0 ]; then
+    echo "daemon: $failures checks failed."
+    exit 1
+fi
+echo "daemon: OK"
@@ -0,0 +1,101 @@
+#!/bin/bash
+# Runs gitlet on a copy of legacy-repo/, a repository written by gitlet as
+# it was before objects got their current formats: commits, refs and blobs
+# serialized whole by Java.  Its master has "two files" (a.txt "one",
+# b.txt "two") and "changed a" (a.txt "changed"), its branch other has
+# "added d" (d.txt "four") on top of "two files".  c.txt ("three") is
+# staged and b.txt is staged for removal, in its .gitlet/staging and
+# .gitlet/removal.
+#
+# Usage: legacy-repo.sh [PROGDIR]
+#   PROGDIR holds the compiled gitlet classes (default: the directory
+#   above this one).  Prints the checks that failed and exits with 1 if
+#   there were any.
+
+here=$(cd "$(dirname "$0")" && pwd)
+export CLASSPATH=$(cd "${1:-$here/..}" && pwd)
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+cp -R "$here/legacy-repo/." "$work"
+cd "$work" || exit 1
+
+failures=0
+
+gitlet() {
+    java -ea -Dgitlet.daemon=false gitlet.Main "$@" 2>&1
+}
+
+# check DESCRIPTION EXPECTED ACTUAL
+check() {
+    if [ "$2" != "$3" ]; then
+        printf 'FAILED: %s\nexpected:\n%s\ngot:\n%s\n' "$1" "$2" "$3"
+        failures=$((failures + 1))
+    fi
+}
+
+check "log" "changed a
+two files
+initial commit" "$(gitlet log | sed -n '/^Date: /{n;p;}')"
+
+first=$(gitlet find "two files")
+other=$(gitlet find "added d")
+
+echo edited > a.txt
+check "checkout -- a.txt" "" "$(gitlet checkout -- a.txt)"
+check "a.txt after checkout -- a.txt" "changed" "$(cat a.txt)"
+
+check "checkout of an old version" "" "$(gitlet checkout "$first" -- a.txt)"
+check "a.txt from \"two files\"" "one" "$(cat a.txt)"
+gitlet checkout -- a.txt > /dev/null
+
+check "diff between commits" "diff --gitlet a/a.txt b/a.txt
+--- a/a.txt
++++ b/a.txt
+@@ -1 +1 @@
+-one
++changed" "$(gitlet diff "$first" master)"
+
+check "status" "=== Branches ===
+*master
+other
+
+=== Staged Files ===
+c.txt
+
+=== Removed Files ===
+b.txt
+
+=== Modifications Not Staged For Commit ===
+
+=== Untracked Files ===" "$(gitlet status)"
+
+check "commit of what was staged" "" "$(gitlet commit "staged before")"
+check "legacy staging directories" "" "$(ls -d .gitlet/staging .gitlet/removal 2> /dev/null)"
+check "status after the commit" "=== Branches ===
+*master
+other
+
+=== Staged Files ===
+
+=== Removed Files ===
+
+=== Modifications Not Staged For Commit ===
+
+=== Untracked Files ===" "$(gitlet status)"
+check "files in \"staged before\"" "changed three" "$(cat a.txt c.txt | tr '\n' ' ' | sed 's/ $//')"
+check "b.txt in \"staged before\"" "File does not exist in that commit." "$(gitlet checkout -- b.txt)"
+
+check "checkout other" "" "$(gitlet checkout other)"
+check "files on other" "one two four" "$(cat a.txt b.txt d.txt | tr '\n' ' ' | sed 's/ $//')"
+check "head of other" "$other" "$(gitlet log | sed -n '2s/^commit //p')"
+check "checkout master" "" "$(gitlet checkout master)"
+check "a.txt on master" "changed" "$(cat a.txt)"
+
+check "merge other" "" "$(gitlet merge other)"
+check "files after the merge" "changed three four" "$(cat a.txt c.txt d.txt | tr '\n' ' ' | sed 's/ $//')"
+
+if [ $failures -ne 0 ]; then
+    echo "legacy-repo: $failures checks failed."
+    exit 1
+fi
+echo "legacy-repo: OK"
@@ -0,0 +1,121 @@
+#!/bin/bash
+# Runs a short history in a repository made with
+# -Dgitlet.objectFormat=sha256, checking that every object is named with
+# the first 160 bits of SHA-256 and that the commands that hash, write and
+# walk objects agree on those names.  Then checks that a clone keeps the
+# format and that fetching between repositories of different formats is
+# refused.  The tester cannot pass JVM options, hence this script.
+#
+# Usage: object-format.sh [PROGDIR]
+#   PROGDIR holds the compiled gitlet classes (default: the directory
+#   above this one).  Prints the checks that failed and exits with 1 if
+#   there were any.
+
+here=$(cd "$(dirname "$0")" && pwd)
+export CLASSPATH=$(cd "${1:-$here/..}" && pwd)
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+mkdir "$work/R256" "$work/R1" "$work/C"
+cd "$work/R256" || exit 1
+
+failures=0
+
+gitlet() {
+    java -ea -Dgitlet.daemon=false gitlet.Main "$@" 2>&1
+}
+
+# check DESCRIPTION EXPECTED ACTUAL
+check() {
+    if [ "$2" != "$3" ]; then
+        printf 'FAILED: %s\nexpected:\n%s\ngot:\n%s\n' "$1" "$2" "$3"
+        failures=$((failures + 1))
+    fi
+}
+
+# The id of a blob of the content of FILE named NAME in a sha256
+# repository: the first 40 hex digits of the SHA-256 of both.
+blob_id() {
+    cat "$1" <(printf '%s' "$2") | sha256sum | cut -c1-40
+}
+
+clean="=== Branches ===
+*master
+other
+
+=== Staged Files ===
+
+=== Removed Files ===
+
+=== Modifications Not Staged For Commit ===
+
+=== Untracked Files ==="
+
+check "init" "" "$(java -ea -Dgitlet.daemon=false -Dgitlet.objectFormat=sha256 gitlet.Main init 2>&1)"
+check "object-format" "sha256" "$(cat .gitlet/object-format)"
+
+echo "This is a wug." > wug.txt
+mkdir dir
+echo "Not a wug." > dir/notwug.txt
+check "add" "" "$(gitlet add wug.txt dir)"
+check "commit" "" "$(gitlet commit "two files")"
+check "blob of wug.txt" "$(blob_id wug.txt wug.txt)" \
+    "$(ls .gitlet/blobs | grep -x "$(blob_id wug.txt wug.txt)")"
+check "blob of dir/notwug.txt" "$(blob_id dir/notwug.txt dir/notwug.txt)" \
+    "$(ls .gitlet/blobs | grep -x "$(blob_id dir/notwug.txt dir/notwug.txt)")"
+gitlet branch other
+check "status after commit" "$clean" "$(gitlet status)"
+
+echo "Changed." > wug.txt
+check "add of a changed file" "" "$(gitlet add wug.txt)"
+check "blob of the changed wug.txt" "$(blob_id wug.txt wug.txt)" \
+    "$(ls .gitlet/blobs | grep -x "$(blob_id wug.txt wug.txt)")"
+gitlet commit "changed wug" > /dev/null
+check "status after the second commit" "$clean" "$(gitlet status)"
+
+gitlet checkout other > /dev/null
+echo "Other." > other.txt
+gitlet add other.txt
+gitlet commit "other file" > /dev/null
+gitlet checkout master > /dev/null
+check "merge" "" "$(gitlet merge other)"
+check "files after the merge" "Changed. Other. Not a wug." \
+    "$(cat wug.txt other.txt dir/notwug.txt | tr '\n' ' ' | sed 's/ $//')"
+
+head=$(gitlet log | sed -n '2s/^commit //p')
+first=$(gitlet find "two files")
+check "commit ids" "40" "$(printf '%s' "$first" | wc -c)"
+check "log -- other.txt" "Merged other into master." \
+    "$(gitlet log -- other.txt | sed -n '/^Date: /{n;p;}')"
+check "log -- wug.txt" "changed wug
+two files" "$(gitlet log -- wug.txt | sed -n '/^Date: /{n;p;}')"
+
+check "repack" "" "$(gitlet repack | grep -v '^Packed [0-9]* objects\.$')"
+check "gc" "" "$(gitlet gc --prune=now | grep -v '^Removed [0-9]* unreachable objects, reclaimed [0-9]* bytes\.$')"
+check "checkout of the first commit by a short id" "" \
+    "$(gitlet checkout "${first:0:8}" -- wug.txt)"
+check "wug.txt from \"two files\"" "This is a wug." "$(cat wug.txt)"
+gitlet checkout -- wug.txt
+check "status after repack and gc" "$clean" "$(gitlet status)"
+
+cd "$work/C" || exit 1
+check "clone" "" "$(gitlet clone ../R256/.gitlet)"
+check "object-format of the clone" "sha256" "$(cat .gitlet/object-format 2> /dev/null)"
+check "head of the clone" "$head" "$(gitlet log | sed -n '2s/^commit //p')"
+check "files of the clone" "Changed. Other. Not a wug." \
+    "$(cat wug.txt other.txt dir/notwug.txt | tr '\n' ' ' | sed 's/ $//')"
+
+cd "$work/R1" || exit 1
+gitlet init > /dev/null
+gitlet add-remote R256 ../R256/.gitlet
+check "fetch from another format" \
+    "The remote names objects with SHA-256, this repository with SHA-1." \
+    "$(gitlet fetch R256 master)"
+check "push to another format" \
+    "The remote names objects with SHA-256, this repository with SHA-1." \
+    "$(gitlet push R256 master)"
+
+if [ $failures -ne 0 ]; then
+    echo "object-format: $failures checks failed."
+    exit 1
+fi
+echo "object-format: OK"
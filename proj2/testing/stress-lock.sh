@@ -0,0 +1,137 @@
+#!/bin/bash
+# Runs many gitlet processes on one repository at once, to check the
+# WriteLock that serializes writers and the snapshots readers take.
+# WRITERS processes each make ROUNDS commits of a new file (add, then
+# commit), next to 3 processes looping over status, log -n 3 and find,
+# then one last commit picks up whatever is still staged.  It passes if
+#   - no process printed an exception,
+#   - no commit was lost: every commit in the repository is on master,
+#     and every file a writer added is in its head commit,
+#   - the update counter in .gitlet/lock is even at the end,
+# and if a stale odd counter, as left by a writer killed while replacing
+# files, is made even again by the next command, a reader.
+#
+# Usage: stress-lock.sh [PROGDIR [WRITERS [ROUNDS]]]
+#   PROGDIR holds the compiled gitlet classes (default: the directory
+#   above this one); WRITERS defaults to 8 and ROUNDS to 10.  Processes
+#   still running after 10 minutes are killed and count as failed.
+
+here=$(cd "$(dirname "$0")" && pwd)
+export CLASSPATH=$(cd "${1:-$here/..}" && pwd)
+writers=${2:-8}
+rounds=${3:-10}
+readers=3
+work=$(mktemp -d)
+pids=()
+trap 'kill ${pids[*]} 2> /dev/null; rm -rf "$work"' EXIT
+mkdir "$work/repo" "$work/out"
+cd "$work/repo" || exit 1
+out=$work/out
+
+failures=0
+
+fail() {
+    echo "FAILED: $*"
+    failures=$((failures + 1))
+}
+
+gitlet() {
+    java -ea -Dgitlet.daemon=false gitlet.Main "$@" 2>&1
+}
+
+# The low bit of the update counter, the 8 big-endian bytes .gitlet/lock
+# starts with.
+counter_parity() {
+    echo $(( $(od -An -tu1 -j7 -N1 .gitlet/lock) % 2 ))
+}
+
+gitlet init > /dev/null
+
+for w in $(seq "$writers"); do
+    (
+        for r in $(seq "$rounds"); do
+            echo "writer $w round $r" > "w$w-r$r.txt"
+            gitlet add "w$w-r$r.txt"
+            gitlet commit "writer $w round $r"
+        done
+    ) > "$out/writer$w" 2>&1 &
+    pids+=($!)
+done
+writer_pids=("${pids[@]}")
+
+touch "$out/running"
+for k in $(seq "$readers"); do
+    (
+        while [ -e "$out/running" ]; do
+            gitlet status
+            gitlet log -n 3
+            gitlet find "writer 1 round 1"
+        done
+    ) > "$out/reader$k" 2>&1 &
+    pids+=($!)
+done
+
+deadline=$((SECONDS + 600))
+for pid in "${writer_pids[@]}"; do
+    while kill -0 "$pid" 2> /dev/null && [ $SECONDS -lt $deadline ]; do
+        sleep 1
+    done
+done
+rm "$out/running"
+for pid in "${pids[@]}"; do
+    while kill -0 "$pid" 2> /dev/null && [ $SECONDS -lt $deadline ]; do
+        sleep 1
+    done
+done
+if [ $SECONDS -ge $deadline ]; then
+    fail "processes still running after 10 minutes"
+fi
+kill "${pids[@]}" 2> /dev/null
+pids=()
+
+gitlet commit "last round" > "$out/last"
+
+if grep -l "Exception\|	at gitlet\." "$out"/*; then
+    fail "exceptions in the output of the processes above:"
+    grep -h -A3 "Exception" "$out"/* | head -20
+fi
+
+on_master=$(gitlet log | grep -c "^commit")
+written=$(gitlet global-log | grep -c "^commit")
+echo "$on_master commits on master, $written written"
+if [ "$on_master" != "$written" ]; then
+    fail "$((written - on_master)) commits are not on master"
+fi
+
+# A file a writer added that is not in the head commit shows up as
+# untracked or staged.
+status=$(gitlet status)
+if [ "$status" != "$(printf '%s\n' "=== Branches ===" "*master" "" \
+        "=== Staged Files ===" "" "=== Removed Files ===" "" \
+        "=== Modifications Not Staged For Commit ===" "" "=== Untracked Files ===" "")" ]; then
+    fail "files left over at the end:"
+    echo "$status"
+fi
+
+if [ "$(counter_parity)" != 0 ]; then
+    fail "the update counter is odd at the end"
+fi
+
+# Leave the counter odd, as a writer killed mid-update would.
+counter=$(od -An -tu1 -N8 .gitlet/lock | tr -s ' ' | sed 's/^ //')
+printf '\x00\x00\x00\x00\x00\x00\x00\x01' | dd of=.gitlet/lock bs=8 count=1 conv=notrunc 2> /dev/null
+if [ "$(counter_parity)" != 1 ]; then
+    fail "could not make the counter odd (it was $counter)"
+fi
+if [ "$(gitlet status)" != "$status" ]; then
+    fail "status after a stale odd counter differs"
+fi
+if [ "$(counter_parity)" != 0 ]; then
+    fail "a stale odd counter was not recovered"
+fi
+
+if [ $failures -ne 0 ]; then
+    echo "stress-lock: $failures checks failed."
+    exit 1
+fi
+echo "stress-lock: OK"